@@ -0,0 +1,149 @@
+package com.daon.idxAuthRequestNode;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import com.daon.identityx.rest.model.def.AuthenticationRequestStatusEnum;
+import com.daon.identityx.rest.model.pojo.Application;
+import com.daon.identityx.rest.model.pojo.AuthenticationRequest;
+import com.daon.identityx.rest.model.pojo.Policy;
+import com.daon.identityx.rest.model.pojo.User;
+import com.identityx.clientSDK.TenantRepoFactory;
+import com.identityx.clientSDK.collections.ApplicationCollection;
+import com.identityx.clientSDK.collections.PolicyCollection;
+import com.identityx.clientSDK.collections.UserCollection;
+import com.identityx.clientSDK.exceptions.IdxRestException;
+import com.identityx.clientSDK.queryHolders.ApplicationQueryHolder;
+import com.identityx.clientSDK.queryHolders.PolicyQueryHolder;
+import com.identityx.clientSDK.queryHolders.UserQueryHolder;
+import com.identityx.clientSDK.repositories.ApplicationRepository;
+import com.identityx.clientSDK.repositories.AuthenticationRequestRepository;
+import com.identityx.clientSDK.repositories.PolicyRepository;
+import com.identityx.clientSDK.repositories.UserRepository;
+
+import java.util.concurrent.locks.LockSupport;
+
+import org.mockito.MockSettings;
+import org.mockito.stubbing.Answer;
+
+/**
+ * An in-process IdentityX tenant for the benchmarks. Every repository call waits for the configured
+ * latency, blocking its thread as the SDK's IO would, and returns canned objects: the benchmark user, an
+ * active policy and application, a PENDING request from a get and a COMPLETED_SUCCESSFUL one from an
+ * update.
+ *
+ * The tenant is registered once per JVM under the handle of the configuration in {@link #KEY_STORE},
+ * {@link #CREDENTIAL_PROPERTIES} and {@link #KEY_ALIAS}, so IdentityX Check Enrollment Status finds it
+ * without any files and the other nodes find it by the handle in sharedState.
+ */
+final class FakeIdentityX {
+
+    static final String KEY_STORE = "/fake/identityx.jks";
+    static final String CREDENTIAL_PROPERTIES = "/fake/credential.properties";
+    static final String KEY_ALIAS = "fake";
+    static final String HANDLE = IdxTenantRepoFactoryRegistry.fingerprint(KEY_STORE, CREDENTIAL_PROPERTIES, KEY_ALIAS);
+
+    static final String USER_ID = "bench-user";
+    static final String POLICY_ID = "bench-policy";
+    static final String APPLICATION_ID = "bench-application";
+    static final String REQUEST_HREF = "https://idx.example.com/tenant/authenticationRequests/bench-request";
+
+    private static volatile long latencyNanos;
+
+    static {
+        try {
+            IdxTenantRepoFactoryRegistry.registerForTesting(HANDLE, newTenantRepoFactory());
+        } catch (IdxRestException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private FakeIdentityX() {
+    }
+
+    /**
+     * Sets how long each repository call takes from now on.
+     */
+    static void setLatencyMillis(long latencyMillis) {
+        latencyNanos = latencyMillis * 1000000;
+    }
+
+    static User user() {
+        User user = new User();
+        user.setId("bench-user-id");
+        user.setUserId(USER_ID);
+        user.setHref("https://idx.example.com/tenant/users/bench-user-id");
+        return user;
+    }
+
+    private static TenantRepoFactory newTenantRepoFactory() throws IdxRestException {
+        UserCollection users = stub(UserCollection.class);
+        when(users.getItems()).thenReturn(new User[] {user()});
+        UserRepository userRepo = stub(UserRepository.class);
+        when(userRepo.list(any(UserQueryHolder.class))).thenAnswer(after(users));
+
+        Application application = new Application();
+        application.setApplicationId(APPLICATION_ID);
+        ApplicationCollection applications = stub(ApplicationCollection.class);
+        when(applications.getItems()).thenReturn(new Application[] {application});
+        ApplicationRepository applicationRepo = stub(ApplicationRepository.class);
+        when(applicationRepo.list(any(ApplicationQueryHolder.class))).thenAnswer(after(applications));
+
+        Policy policy = new Policy();
+        policy.setPolicyId(POLICY_ID);
+        policy.setApplication(application);
+        PolicyCollection policies = stub(PolicyCollection.class);
+        when(policies.getItems()).thenReturn(new Policy[] {policy});
+        PolicyRepository policyRepo = stub(PolicyRepository.class);
+        when(policyRepo.list(any(PolicyQueryHolder.class))).thenAnswer(after(policies));
+
+        AuthenticationRequestRepository requestRepo = stub(AuthenticationRequestRepository.class);
+        when(requestRepo.create(any(AuthenticationRequest.class)))
+                .thenAnswer(after(request(AuthenticationRequestStatusEnum.PENDING)));
+        when(requestRepo.get(anyString())).thenAnswer(after(request(AuthenticationRequestStatusEnum.PENDING)));
+        when(requestRepo.update(any(AuthenticationRequest.class)))
+                .thenAnswer(after(request(AuthenticationRequestStatusEnum.COMPLETED_SUCCESSFUL)));
+
+        TenantRepoFactory tenantRepoFactory = stub(TenantRepoFactory.class);
+        when(tenantRepoFactory.getUserRepo()).thenReturn(userRepo);
+        when(tenantRepoFactory.getApplicationRepo()).thenReturn(applicationRepo);
+        when(tenantRepoFactory.getPolicyRepo()).thenReturn(policyRepo);
+        when(tenantRepoFactory.getAuthenticationRequestRepo()).thenReturn(requestRepo);
+        return tenantRepoFactory;
+    }
+
+    private static AuthenticationRequest request(AuthenticationRequestStatusEnum status) {
+        AuthenticationRequest request = new AuthenticationRequest();
+        request.setId("bench-request");
+        request.setHref(REQUEST_HREF);
+        request.setStatus(status);
+        return request;
+    }
+
+    /**
+     * Returns a mock which keeps no record of its invocations, which would otherwise grow for as long as
+     * a benchmark runs.
+     */
+    private static <T> T stub(Class<T> type) {
+        MockSettings settings = withSettings().stubOnly();
+        return mock(type, settings);
+    }
+
+    /**
+     * Answers with the given value once the configured latency has passed.
+     */
+    private static <T> Answer<T> after(T value) {
+        return invocation -> {
+            long wait = latencyNanos;
+            long end = System.nanoTime() + wait;
+            while (wait > 0) {
+                LockSupport.parkNanos(wait);
+                wait = end - System.nanoTime();
+            }
+            return value;
+        };
+    }
+}
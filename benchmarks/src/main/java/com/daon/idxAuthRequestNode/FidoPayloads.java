@@ -0,0 +1,72 @@
+package com.daon.idxAuthRequestNode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * Values shaped like those the ADoS mobile SDK posts back to the mobile nodes: a JSON object echoing the
+ * request, whose fidoAuthenticationResponse is a UAF authentication response serialized as a string.
+ * Binary fields are filled with fixed pseudo-random bytes of realistic sizes.
+ */
+final class FidoPayloads {
+
+    private static final Random random = new Random(42);
+
+    private FidoPayloads() {
+    }
+
+    /**
+     * Returns a UAF authentication response: the message header, final challenge parameters and a
+     * signed assertion of about the given size in bytes.
+     */
+    static String authenticationResponse(int assertionBytes) {
+        String serverData = base64(64);
+        String finalChallenge = base64(String.format("{\"appID\":\"https://idx.example.com/tenant/facets\","
+                + "\"challenge\":\"%s\",\"facetID\":\"android:apk-key-hash:%s\",\"channelBinding\":{}}",
+                base64(32), base64(20)).getBytes(StandardCharsets.UTF_8));
+        return String.format("[{\"header\":{\"upv\":{\"major\":1,\"minor\":1},\"op\":\"Auth\","
+                + "\"appID\":\"https://idx.example.com/tenant/facets\",\"serverData\":\"%s\"},"
+                + "\"fcParams\":\"%s\",\"assertions\":[{\"assertionScheme\":\"UAFV1TLV\",\"assertion\":\"%s\"}]}]",
+                serverData, finalChallenge, base64(assertionBytes));
+    }
+
+    /**
+     * Returns the value the client posts: the request it was handed, with the response added first or
+     * last.
+     * @param requestBytes the approximate size of the echoed fidoAuthenticationRequest
+     */
+    static String postedValue(int requestBytes, int assertionBytes, boolean responseFirst) {
+        String response = "\"fidoAuthenticationResponse\":" + quote(authenticationResponse(assertionBytes));
+        String request = "\"href\":\"https://idx.example.com/tenant/authenticationRequests/bench-request\","
+                + "\"id\":\"bench-request\",\"fidoChallenge\":\"" + base64(32) + "\","
+                + "\"fidoAuthenticationRequest\":" + quote(authenticationRequest(requestBytes)) + ","
+                + "\"fidoResponseCode\":0,\"fidoResponseMsg\":null,\"extensions\":{\"device\":{\"model\":\"bench\","
+                + "\"os\":\"Android 14\",\"authenticators\":[\"D409#9302\",\"D409#8302\"]}}";
+        return responseFirst ? "{" + response + "," + request + "}" : "{" + request + "," + response + "}";
+    }
+
+    private static String authenticationRequest(int approximateBytes) {
+        StringBuilder policy = new StringBuilder();
+        while (policy.length() < approximateBytes) {
+            policy.append(policy.length() == 0 ? "" : ",").append("[{\"aaid\":[\"D409#")
+                    .append(String.format("%04x", random.nextInt(0x10000))).append("\"]}]");
+        }
+        return "[{\"header\":{\"upv\":{\"major\":1,\"minor\":1},\"op\":\"Auth\",\"serverData\":\"" + base64(64)
+                + "\"},\"challenge\":\"" + base64(32) + "\",\"policy\":{\"accepted\":[" + policy + "]}}]";
+    }
+
+    private static String base64(int bytes) {
+        byte[] data = new byte[bytes];
+        random.nextBytes(data);
+        return base64(data);
+    }
+
+    private static String base64(byte[] data) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(data);
+    }
+
+    private static String quote(String json) {
+        return "\"" + json.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
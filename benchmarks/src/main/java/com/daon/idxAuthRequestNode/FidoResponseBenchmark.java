@@ -0,0 +1,74 @@
+package com.daon.idxAuthRequestNode;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading the fidoAuthenticationResponse out of values shaped like those the ADoS mobile SDK posts, see
+ * {@link FidoPayloads}, with the node's streaming read and, for comparison, a full parse into a tree.
+ * Run with -prof gc for the allocation per read.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FidoResponseBenchmark {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * The approximate size of the echoed fidoAuthenticationRequest, which the read skips.
+     */
+    @Param({"1024", "16384"})
+    public int requestBytes;
+
+    /**
+     * The size of the signed assertion within the response.
+     */
+    @Param({"512", "4096"})
+    public int assertionBytes;
+
+    /**
+     * Whether the response comes before or after the echoed request.
+     */
+    @Param({"true", "false"})
+    public boolean responseFirst;
+
+    private String value;
+
+    @Setup
+    public void setUp() {
+        value = FidoPayloads.postedValue(requestBytes, assertionBytes, responseFirst);
+        if (IdxMobileValidateAuthRequestNode.extractAuthResponse(value) == null) {
+            throw new IllegalStateException("No fidoAuthenticationResponse read from the payload");
+        }
+    }
+
+    @Benchmark
+    public String streamingRead() {
+        return IdxMobileValidateAuthRequestNode.extractAuthResponse(value);
+    }
+
+    @Benchmark
+    public String treeRead() throws IOException {
+        JsonNode response = mapper.readTree(value).get(IdxCommon.IDX_AUTH_RESPONSE_PROPERTY_NAME);
+        return response != null && response.isTextual() ? response.textValue() : null;
+    }
+}
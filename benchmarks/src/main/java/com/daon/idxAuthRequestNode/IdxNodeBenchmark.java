@@ -0,0 +1,177 @@
+package com.daon.idxAuthRequestNode;
+
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.openam.auth.node.api.Action;
+import org.forgerock.openam.auth.node.api.ExternalRequestContext;
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+import org.forgerock.openam.auth.node.api.SharedStateConstants;
+import org.forgerock.openam.auth.node.api.TreeContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Drives each node through process(TreeContext) against {@link FakeIdentityX}, reporting throughput and
+ * the latency distribution, including p99, per node. Run with -prof gc for the allocation rate.
+ *
+ * Each invocation builds a new TreeContext, as AM does for every request, so its allocation is included.
+ * The nodes' caches stay enabled; pass -jvmArgsAppend -Didx.userCache.maxSize=0 to make every IdentityX
+ * Check Enrollment Status invocation search the fake tenant.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class IdxNodeBenchmark {
+
+    private static final String USERNAME = "bench";
+
+    /**
+     * How long each call to the fake tenant takes.
+     */
+    @Param({"0", "20"})
+    public long latencyMillis;
+
+    private IdxCheckEnrollmentStatus checkEnrollmentStatus;
+    private IdxAuthRequestNode authRequest;
+    private IdxAuthStatusNode authStatus;
+    private IdxMobileAuthRequestNode mobileAuthRequest;
+    private IdxMobileValidateAuthRequestNode mobileValidate;
+
+    private JsonValue enrolledState;
+    private JsonValue requestedState;
+    private JsonValue respondedState;
+
+    @Setup
+    public void setUp() {
+        FakeIdentityX.setLatencyMillis(latencyMillis);
+
+        checkEnrollmentStatus = new IdxCheckEnrollmentStatus(new IdxCheckEnrollmentStatus.Config() {
+            @Override
+            public String pathToKeyStore() {
+                return FakeIdentityX.KEY_STORE;
+            }
+
+            @Override
+            public String pathToCredentialProperties() {
+                return FakeIdentityX.CREDENTIAL_PROPERTIES;
+            }
+
+            @Override
+            public char[] jksPassword() {
+                return "password".toCharArray();
+            }
+
+            @Override
+            public String keyAlias() {
+                return FakeIdentityX.KEY_ALIAS;
+            }
+
+            @Override
+            public char[] keyPassword() {
+                return "password".toCharArray();
+            }
+
+            @Override
+            public String userIdAttribute() {
+                return "";
+            }
+        }, UUID.randomUUID());
+
+        authRequest = new IdxAuthRequestNode(new IdxAuthRequestNode.Config() {
+            @Override
+            public String policyName() {
+                return FakeIdentityX.POLICY_ID;
+            }
+
+            @Override
+            public String applicationId() {
+                return FakeIdentityX.APPLICATION_ID;
+            }
+        });
+
+        authStatus = new IdxAuthStatusNode(new IdxAuthStatusNode.Config() {
+            @Override
+            public int serverSideWait() {
+                //The fake request stays PENDING, so a wait would measure the wait rather than the node
+                return 0;
+            }
+        });
+
+        mobileAuthRequest = new IdxMobileAuthRequestNode(new IdxMobileAuthRequestNode.Config() {
+            @Override
+            public String policyName() {
+                return FakeIdentityX.POLICY_ID;
+            }
+
+            @Override
+            public String applicationId() {
+                return FakeIdentityX.APPLICATION_ID;
+            }
+        });
+
+        mobileValidate = new IdxMobileValidateAuthRequestNode(new IdxMobileValidateAuthRequestNode.Config() {
+        });
+
+        enrolledState = json(object());
+        enrolledState.put(SharedStateConstants.USERNAME, USERNAME);
+        enrolledState.put("IdxKeyUserName", FakeIdentityX.USER_ID);
+        enrolledState.put(IdxCommon.IDX_TENANT_HANDLE_KEY, FakeIdentityX.HANDLE);
+        IdxUserHandle.of(FakeIdentityX.user()).putInto(enrolledState);
+
+        requestedState = enrolledState.copy();
+        requestedState.put(IdxCommon.IDX_HREF_KEY, FakeIdentityX.REQUEST_HREF);
+
+        respondedState = requestedState.copy();
+        respondedState.put(IdxCommon.IDX_AUTH_RESPONSE_KEY, FidoPayloads.postedValue(1024, 512, false));
+    }
+
+    @Benchmark
+    public Action checkEnrollmentStatus() throws NodeProcessException {
+        return checkEnrollmentStatus.process(context(json(object())
+                .put(SharedStateConstants.USERNAME, FakeIdentityX.USER_ID)));
+    }
+
+    @Benchmark
+    public Action authRequest() throws NodeProcessException {
+        return authRequest.process(context(enrolledState.copy()));
+    }
+
+    @Benchmark
+    public Action authStatus() throws NodeProcessException {
+        return authStatus.process(context(requestedState.copy()));
+    }
+
+    @Benchmark
+    public Action mobileAuthRequest() throws NodeProcessException {
+        return mobileAuthRequest.process(context(enrolledState.copy()));
+    }
+
+    @Benchmark
+    public Action mobileValidate() throws NodeProcessException {
+        return mobileValidate.process(context(respondedState.copy()));
+    }
+
+    private static TreeContext context(JsonValue sharedState) {
+        return new TreeContext(sharedState, json(object()), new ExternalRequestContext.Builder().build(),
+                Collections.emptyList(), Optional.empty());
+    }
+}
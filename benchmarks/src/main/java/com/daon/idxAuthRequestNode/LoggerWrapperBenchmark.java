@@ -0,0 +1,93 @@
+package com.daon.idxAuthRequestNode;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of {@link LoggerWrapper} calls at a disabled level, which is what the nodes pay on every
+ * request in production. Run with -prof gc: gc.alloc.rate.norm shows the bytes each call allocates, which
+ * should be 0 for the constant, one and two argument and non-capturing Supplier forms.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoggerWrapperBenchmark {
+
+    private static final LoggerWrapper logger = new LoggerWrapper();
+
+    private static final String HREF = "https://idx.example.com:8443/tenant/authenticationRequests/bench-request";
+
+    private String userId = "bench-user";
+    private String href = HREF;
+    private int status = 200;
+
+    @Setup
+    public void setUp() {
+        if (logger.isDebugEnabled() || logger.isInfoEnabled()) {
+            throw new IllegalStateException("Debug and info logging must be disabled, see logback.xml");
+        }
+    }
+
+    @Benchmark
+    public void constantMessage() {
+        logger.debug("Checking the authentication request status");
+    }
+
+    @Benchmark
+    public void oneArgument() {
+        logger.debug("User found with ID {}", userId);
+    }
+
+    @Benchmark
+    public void twoArguments() {
+        logger.debug("AuthRequest Href = {} Status = {}", href, status);
+    }
+
+    @Benchmark
+    public void threeArguments() {
+        //The argument array is allocated before the level is checked
+        logger.debug("UserId={} Href={} Status={}", userId, href, status);
+    }
+
+    @Benchmark
+    public void threeArgumentsGuarded() {
+        if (logger.isDebugEnabled()) {
+            logger.debug("UserId={} Href={} Status={}", userId, href, status);
+        }
+    }
+
+    @Benchmark
+    public void nonCapturingSupplier() {
+        logger.debug("Connected to the IdentityX Server @ [{}]", () -> IdxCommon.getServerName(HREF));
+    }
+
+    @Benchmark
+    public void capturingSupplier() {
+        String current = href;
+        logger.debug("Connected to the IdentityX Server @ [{}]", () -> IdxCommon.getServerName(current));
+    }
+
+    @Benchmark
+    public void infoSupplier() {
+        logger.info("Connected to the IdentityX Server @ [{}]", () -> IdxCommon.getServerName(HREF));
+    }
+
+    @Benchmark
+    public void eagerArgument() {
+        //What the Supplier overloads avoid: the argument is computed whatever the level
+        logger.debug("Connected to the IdentityX Server @ [{}]", IdxCommon.getServerName(href));
+    }
+}
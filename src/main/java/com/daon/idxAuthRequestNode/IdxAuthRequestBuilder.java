@@ -0,0 +1,93 @@
+package com.daon.idxAuthRequestNode;
+
+import com.daon.identityx.rest.model.def.TransactionPushNotificationTypeEnum;
+import com.daon.identityx.rest.model.pojo.Application;
+import com.daon.identityx.rest.model.pojo.AuthenticationRequest;
+import com.daon.identityx.rest.model.pojo.Policy;
+import com.daon.identityx.rest.model.pojo.User;
+
+import java.util.UUID;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+
+/**
+ * Builds the AuthenticationRequest objects sent to IdentityX by IdxAuthRequestNode and
+ * IdxMobileAuthRequestNode.
+ *
+ * The user is referenced by the {@link IdxUserHandle} which IdxCheckEnrollmentStatus places in
+ * sharedState, so no user has to be parsed or fetched.
+ */
+final class IdxAuthRequestBuilder {
+
+    private static LoggerWrapper logger = new LoggerWrapper();
+
+    private static final String PUSH_DESCRIPTION = "OpenAM has Requested an Authentication.";
+
+    private IdxAuthRequestBuilder() {
+    }
+
+    /**
+     * Returns a reference to the IdentityX user held in sharedState.
+     * @throws NodeProcessException if sharedState holds no user
+     */
+    static User getUser(JsonValue sharedState) throws NodeProcessException {
+        IdxUserHandle handle = IdxUserHandle.fromSharedState(sharedState);
+        if (handle != null) {
+            return handle.toUser();
+        }
+
+        String error = "Error retrieving user, make sure IdxCheckEnrollmentStatus node is in the tree";
+        logger.error(error);
+        throw new NodeProcessException(error);
+    }
+
+    /**
+     * Builds a request which IdentityX pushes to the user's device.
+     * @param fidoRequest true for a FIDO (FI) request, false for an IdentityX (IX) request
+     * @param sendPushNotification whether IdentityX should send a push notification
+     */
+    static AuthenticationRequest buildPushRequest(User user, Policy policy, Application application,
+            boolean fidoRequest, boolean sendPushNotification) {
+
+        AuthenticationRequest request = newRequest(user, policy, application);
+        request.setDescription(PUSH_DESCRIPTION);
+        request.setType(fidoRequest ? IdxCommon.IDX_AUTH_REQUEST_TYPE : "IX");
+        request.setOneTimePasswordEnabled(false);
+        request.setAuthenticationRequestId(UUID.randomUUID().toString());
+        if (sendPushNotification) {
+            request.setPushNotificationType(TransactionPushNotificationTypeEnum.VERIFY_WITH_CONFIRMATION);
+        }
+        return request;
+    }
+
+    /**
+     * Builds a FIDO request which is handed to the ADoS mobile SDK through callbacks. The policy and
+     * application are referenced by id.
+     * @param serverData data returned to the client with the request, the AM username
+     */
+    static AuthenticationRequest buildMobileRequest(User user, String policyId, String applicationId,
+            String description, String serverData) {
+
+        Application application = new Application();
+        application.setApplicationId(applicationId);
+
+        Policy policy = new Policy();
+        policy.setPolicyId(policyId);
+        policy.setApplication(application);
+
+        AuthenticationRequest request = newRequest(user, policy, application);
+        request.setDescription(description);
+        request.setType(IdxCommon.IDX_AUTH_REQUEST_TYPE);
+        request.setServerData(serverData);
+        return request;
+    }
+
+    private static AuthenticationRequest newRequest(User user, Policy policy, Application application) {
+        AuthenticationRequest request = new AuthenticationRequest();
+        request.setUser(user);
+        request.setPolicy(policy);
+        request.setApplication(application);
+        return request;
+    }
+}
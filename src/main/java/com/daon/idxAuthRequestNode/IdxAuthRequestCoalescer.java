@@ -0,0 +1,172 @@
+package com.daon.idxAuthRequestNode;
+
+import com.daon.identityx.rest.model.pojo.AuthenticationRequest;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.identityx.clientSDK.TenantRepoFactory;
+import com.identityx.clientSDK.exceptions.IdxRestException;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+
+/**
+ * Coalesces GETs of the same IdentityX authentication request.
+ *
+ * Callers asking for an href that is already being fetched wait for that call instead of issuing their
+ * own, though never past their own deadline, and requests which have reached a final status are served
+ * from a short-lived cache. This keeps retry storms and multiple polling tabs from multiplying the load on
+ * IdentityX. Calls are shared only within a tenant, so two tenants never share a result even for the same
+ * href. The same AuthenticationRequest object is handed to every caller sharing it, so callers must treat
+ * it as read-only.
+ *
+ * Tuned with idx.authRequestCache.ttlSeconds (default 30, 0 disables caching of final statuses) and
+ * idx.authRequestCache.maxSize (default 10000).
+ */
+final class IdxAuthRequestCoalescer {
+
+    private static LoggerWrapper logger = new LoggerWrapper();
+
+    private static final long TTL_SECONDS = Long.getLong("idx.authRequestCache.ttlSeconds", 30);
+    private static final long MAX_SIZE = Long.getLong("idx.authRequestCache.maxSize", 10000);
+
+    private static final Set<String> FINAL_STATUSES = ImmutableSet.of("COMPLETED_SUCCESSFUL", "EXPIRED", "FAILED");
+
+    private static final ConcurrentMap<Key, CompletableFuture<AuthenticationRequest>> inFlight =
+            new ConcurrentHashMap<>();
+
+    private static final Cache<Key, AuthenticationRequest> completed = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SIZE)
+            .expireAfterWrite(Math.max(TTL_SECONDS, 0), TimeUnit.SECONDS)
+            .build();
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder coalesced = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+
+    private IdxAuthRequestCoalescer() {
+    }
+
+    /**
+     * Returns the authentication request at the given href. The request may be shared with other callers
+     * and must not be modified.
+     */
+    static AuthenticationRequest get(TenantRepoFactory tenantRepoFactory, String authRequestHref)
+            throws NodeProcessException {
+
+        Key key = new Key(tenantRepoFactory, authRequestHref);
+        AuthenticationRequest request = completed.getIfPresent(key);
+        if (request != null) {
+            hits.increment();
+            return request;
+        }
+
+        CompletableFuture<AuthenticationRequest> call = new CompletableFuture<>();
+        CompletableFuture<AuthenticationRequest> existing = inFlight.putIfAbsent(key, call);
+        if (existing != null) {
+            coalesced.increment();
+            return await(existing);
+        }
+
+        misses.increment();
+        try {
+            request = IdxCircuitBreaker.call(tenantRepoFactory, "getAuthRequest",
+                    () -> tenantRepoFactory.getAuthenticationRequestRepo().get(authRequestHref));
+            if (TTL_SECONDS > 0 && request.getStatus() != null
+                    && FINAL_STATUSES.contains(request.getStatus().toString())) {
+                completed.put(key, request);
+            }
+            call.complete(request);
+            return request;
+        } catch (IdxRestException e) {
+            NodeProcessException ex = new NodeProcessException(e);
+            call.completeExceptionally(ex);
+            throw ex;
+        } catch (NodeProcessException | RuntimeException e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, call);
+        }
+    }
+
+    /**
+     * Number of calls answered from the cache of final statuses.
+     */
+    static long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Number of calls which shared a GET already in flight.
+     */
+    static long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * Number of calls which went to IdentityX.
+     */
+    static long getMissCount() {
+        return misses.sum();
+    }
+
+    private static AuthenticationRequest await(CompletableFuture<AuthenticationRequest> call)
+            throws NodeProcessException {
+        Long deadline = IdxCallExecutor.getDeadline();
+        try {
+            if (deadline == null) {
+                return call.get();
+            }
+            return call.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            IdxMetrics.recordTimeout("getAuthRequest");
+            throw new IdxTimeoutException("Shared IdentityX call getAuthRequest timed out");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NodeProcessException(e);
+        } catch (ExecutionException e) {
+            logger.debug("Shared AuthenticationRequest GET failed: {}", e.getCause().getMessage());
+            if (e.getCause() instanceof NodeProcessException) {
+                throw (NodeProcessException) e.getCause();
+            }
+            throw new NodeProcessException(e.getCause());
+        }
+    }
+
+    /**
+     * An authentication request href within a tenant.
+     */
+    private static final class Key {
+        private final TenantRepoFactory tenantRepoFactory;
+        private final String href;
+
+        Key(TenantRepoFactory tenantRepoFactory, String href) {
+            this.tenantRepoFactory = tenantRepoFactory;
+            this.href = href;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return tenantRepoFactory == other.tenantRepoFactory && href.equals(other.href);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(tenantRepoFactory), href);
+        }
+    }
+}
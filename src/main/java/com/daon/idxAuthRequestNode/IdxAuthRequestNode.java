@@ -18,25 +18,15 @@
 package com.daon.idxAuthRequestNode;
 
 import static com.daon.idxAuthRequestNode.IdxCommon.getTenantRepoFactory;
-import static com.daon.idxAuthRequestNode.IdxCommon.objectMapper;
 
 import com.daon.identityx.rest.model.def.PolicyStatusEnum;
-import com.daon.identityx.rest.model.def.TransactionPushNotificationTypeEnum;
 import com.daon.identityx.rest.model.pojo.AuthenticationRequest;
 import com.daon.identityx.rest.model.pojo.User;
 import com.google.inject.assistedinject.Assisted;
 import com.identityx.clientSDK.TenantRepoFactory;
-import com.identityx.clientSDK.collections.ApplicationCollection;
-import com.identityx.clientSDK.collections.PolicyCollection;
 import com.identityx.clientSDK.exceptions.IdxRestException;
-import com.identityx.clientSDK.queryHolders.ApplicationQueryHolder;
-import com.identityx.clientSDK.queryHolders.PolicyQueryHolder;
-import com.identityx.clientSDK.repositories.ApplicationRepository;
 import com.identityx.clientSDK.repositories.AuthenticationRequestRepository;
-import com.identityx.clientSDK.repositories.PolicyRepository;
 import com.sun.identity.sm.RequiredValueValidator;
-import java.io.IOException;
-import java.util.UUID;
 import javax.inject.Inject;
 import org.forgerock.json.JsonValue;
 import org.forgerock.openam.annotations.sm.Attribute;
@@ -83,6 +73,15 @@ public class IdxAuthRequestNode extends SingleOutcomeNode {
 		default boolean sendPushNotification() {
 			return true;
 		}
+
+		/**
+		 * the time the node allows for its calls to IdentityX, after which it stops waiting
+		 * @return the timeout in whole seconds, 0 to wait as long as the calls take
+		 */
+		@Attribute(order = 500)
+		default int requestTimeout() {
+			return 10;
+		}
 	}
 
 	private final Config config;
@@ -98,23 +97,23 @@ public class IdxAuthRequestNode extends SingleOutcomeNode {
 
     @Override
     public Action process(TreeContext context) throws NodeProcessException {
-    	User user;
-		try {
-			user = objectMapper.readValue(context.sharedState.get(IdxCommon.IDX_USER_KEY).asString(), User.class);
-		} catch (IOException e) {
-			logger.error("Can't find user in SharedState");
-			throw new NodeProcessException(e);
-		}
+    	return IdxCallExecutor.withDeadline(config.requestTimeout(),
+    			() -> IdxMetrics.timedNode("IdxAuthRequestNode", context, () -> createAuthenticationRequest(context)));
+    }
+
+    private Action createAuthenticationRequest(TreeContext context) throws NodeProcessException {
+    	User user = IdxAuthRequestBuilder.getUser(context.sharedState);
 
 		TenantRepoFactory tenantRepoFactory = getTenantRepoFactory(context);
 		logger.debug("Connected to the IdentityX Server");
 
 		String authHref = generateAuthenticationRequest(user, config.policyName(), tenantRepoFactory);
-		logger.debug("Auth href: " + authHref);
+		logger.debug("Auth href: {}", authHref);
 
     	//Place the href value in sharedState
     	logger.debug("Setting auth URL in shared state...");
 		JsonValue newState = context.sharedState.copy().put(IdxCommon.IDX_HREF_KEY, authHref);
+		IdxTrace.setCorrelationId(newState, authHref);
 
     	return goToNext().replaceSharedState(newState).build();
     }
@@ -122,77 +121,24 @@ public class IdxAuthRequestNode extends SingleOutcomeNode {
 	private String generateAuthenticationRequest(User user, String policyName, TenantRepoFactory
 		   tenantRepoFactory) throws NodeProcessException {
 
-		AuthenticationRequest request = new AuthenticationRequest();
-		if (user == null) {
-			String error = "Error retrieving user";
-			logger.error(error);
-			throw new NodeProcessException(error);
-		}
-		else {
-			logger.debug("User found with ID " + user.getUserId());
-			request.setUser(user);
-		}
+		logger.debug("Creating authentication request for user with ID {}", user.getUserId());
 
-		PolicyQueryHolder holder = new PolicyQueryHolder();
-		holder.getSearchSpec().setPolicyId(policyName);
-		holder.getSearchSpec().setStatus(PolicyStatusEnum.ACTIVE);
-		PolicyRepository policyRepo = tenantRepoFactory.getPolicyRepo();
-		PolicyCollection policyCollection;
-		try {
-			policyCollection = policyRepo.list(holder);
-		} catch (IdxRestException e) {
-			throw new NodeProcessException(e);
-		}
-		if(policyCollection.getItems().length > 0) {
-			logger.debug("Setting Policy On Authentication Request");
-			request.setPolicy(policyCollection.getItems()[0]);
-		}
-		else {
-			logger.error("Could not find an active policy with the PolicyId: " + policyName);
-			throw new NodeProcessException("Could not find an active policy with the PolicyId: " + policyName);
-		}
-
-		String appId = config.applicationId();
-		ApplicationRepository applicationRepo = tenantRepoFactory.getApplicationRepo();
-		ApplicationQueryHolder applicationQueryHolder = new ApplicationQueryHolder();
-		applicationQueryHolder.getSearchSpec().setApplicationId(appId);
-		ApplicationCollection applicationCollection;
-		try {
-			applicationCollection = applicationRepo.list(applicationQueryHolder);
-		} catch (IdxRestException e) {
-			throw new NodeProcessException(e);
-		}
+		IdxLookupCache.PolicyAndApplication lookup = IdxLookupCache.getPolicyAndApplication(tenantRepoFactory,
+				policyName, PolicyStatusEnum.ACTIVE, config.applicationId());
 
-		if (applicationCollection.getItems().length > 0) {
-			request.setApplication(applicationCollection.getItems()[0]);
-		}
-		else {
-			logger.debug("No Application was found with this name " + appId);
-			throw new NodeProcessException("No Application was found with this name " + appId);
-		}
-
-		request.setDescription("OpenAM has Requested an Authentication.");
-
-		String txnRequestType = "FI";
-		if (!config.isFidoRequest()) {
-			txnRequestType = "IX";
-		}
-		request.setType(txnRequestType);
-		request.setOneTimePasswordEnabled(false);
-		request.setAuthenticationRequestId(UUID.randomUUID().toString());
-
-		if (config.sendPushNotification()) {
-			request.setPushNotificationType(TransactionPushNotificationTypeEnum.VERIFY_WITH_CONFIRMATION);
-		}
+		logger.debug("Setting Policy On Authentication Request");
+		AuthenticationRequest request = IdxAuthRequestBuilder.buildPushRequest(user, lookup.getPolicy(),
+				lookup.getApplication(), config.isFidoRequest(), config.sendPushNotification());
 
 		AuthenticationRequestRepository authenticationRequestRepo = tenantRepoFactory.getAuthenticationRequestRepo();
+		AuthenticationRequest newRequest = request;
 		try {
-			request = authenticationRequestRepo.create(request);
+			request = IdxCircuitBreaker.call(tenantRepoFactory, "createAuthRequest", () -> authenticationRequestRepo.create(newRequest));
 		} catch (IdxRestException e) {
-			logger.debug("Error creating authentication request for user: " + user.getUserId());
+			logger.debug("Error creating authentication request for user: {}", user.getUserId());
 			throw new NodeProcessException(e);
 		}
-		logger.debug("Added an authentication request, - authRequestId: {}" + request.getId());
+		logger.debug("Added an authentication request, - authRequestId: {}", request.getId());
 		return request.getHref();
 	}
 
@@ -56,7 +56,7 @@ import org.forgerock.openam.plugins.PluginException;
  */
 public class IdxAuthRequestNodePlugin extends AbstractNodeAmPlugin {
 
-	static String currentVersion = "1.4.0";
+	static String currentVersion = "1.11.0";
 	
     /** 
      * Specify the Map of list of node classes that the plugin is providing. These will then be installed and
@@ -84,11 +84,34 @@ public class IdxAuthRequestNodePlugin extends AbstractNodeAmPlugin {
 		
 		//Force Upgrade of Nodes, requires changing currentVersion=
 		pluginTools.upgradeAuthNode(IdxCheckEnrollmentStatus.class);
+		pluginTools.upgradeAuthNode(IdxAuthRequestNode.class);
+		pluginTools.upgradeAuthNode(IdxAuthStatusNode.class);
+		pluginTools.upgradeAuthNode(IdxSponsorUser.class);
 		pluginTools.upgradeAuthNode(IdxMobileAuthRequestNode.class);
 		pluginTools.upgradeAuthNode(IdxMobileValidateAuthRequestNode.class);
 		super.upgrade(fromVersion);
 	}
 
+    /**
+     * Registers the nodes and the metrics MBean and, when idx.prewarm.realms is set, starts initialising the
+     * IdentityX tenants configured in those realms in the background.
+     */
+	@Override
+	public void onStartup() throws PluginException {
+		super.onStartup();
+		IdxMetricsMBean.register();
+		IdxTenantPrewarmer.start();
+	}
+
+    /**
+     * Removes the metrics MBean.
+     */
+	@Override
+	public void onShutdown() {
+		IdxMetricsMBean.unregister();
+		super.onShutdown();
+	}
+
     /** 
      * The plugin version. This must be in semver (semantic version) format.
      *
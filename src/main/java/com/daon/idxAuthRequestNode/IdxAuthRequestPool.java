@@ -0,0 +1,155 @@
+package com.daon.idxAuthRequestNode;
+
+import com.daon.identityx.rest.model.pojo.AuthenticationRequest;
+import com.daon.identityx.rest.model.pojo.User;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.identityx.clientSDK.TenantRepoFactory;
+import com.identityx.clientSDK.exceptions.IdxRestException;
+
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+
+/**
+ * Authentication requests created ahead of time for IdxMobileAuthRequestNode.
+ *
+ * When configured to, IdxCheckEnrollmentStatus creates the mobile authentication request in the
+ * background as soon as it has found the user, and places the id of the slot holding it in sharedState.
+ * The mobile node then claims the request from the slot instead of creating it while the client waits.
+ * A slot can be claimed once, only for the user, tenant, policy, application and description it was
+ * created with; otherwise the mobile node creates its own request as before. A request whose slot is never
+ * claimed stays pending on IdentityX until it expires there.
+ *
+ * Unclaimed slots are dropped after idx.precreate.ttlSeconds (default 30) and at most
+ * idx.precreate.maxSize (default 1000) are kept. The background creations share
+ * idx.precreate.threads threads (default 4) when virtual threads are not available, and go through the
+ * tenant's background circuit breaker so they cannot hold up or trip that of the logins. A claim waits up
+ * to idx.precreate.claimWaitMillis (default 2000), and no longer than the node's deadline, for a creation
+ * still in progress.
+ */
+final class IdxAuthRequestPool {
+
+    private static LoggerWrapper logger = new LoggerWrapper();
+
+    private static final long TTL_SECONDS = Long.getLong("idx.precreate.ttlSeconds", 30);
+    private static final long MAX_SIZE = Long.getLong("idx.precreate.maxSize", 1000);
+    private static final int THREADS = Integer.getInteger("idx.precreate.threads", 4);
+    private static final long CLAIM_WAIT_MILLIS = Long.getLong("idx.precreate.claimWaitMillis", 2000);
+
+    private static final Cache<String, Slot> slots = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SIZE)
+            .expireAfterWrite(Math.max(TTL_SECONDS, 0), TimeUnit.SECONDS)
+            .build();
+
+    private static final ExecutorService executor = IdxCallExecutor.newExecutor("idx-precreate-%d", THREADS,
+            (int) Math.min(MAX_SIZE, Integer.MAX_VALUE));
+
+    private IdxAuthRequestPool() {
+    }
+
+    /**
+     * Starts creating a mobile authentication request in the background.
+     * @return the id of the slot which will hold the request, or null if none is being created
+     */
+    static String preCreate(TenantRepoFactory tenantRepoFactory, User user, String policyId, String applicationId,
+            String description, String serverData) {
+
+        if (TTL_SECONDS <= 0 || slots.size() >= MAX_SIZE) {
+            return null;
+        }
+
+        AuthenticationRequest request = IdxAuthRequestBuilder.buildMobileRequest(user, policyId, applicationId,
+                description, serverData);
+        Slot slot = new Slot(tenantRepoFactory, user.getHref(), policyId, applicationId, description);
+        try {
+            executor.execute(() -> slot.create(request));
+        } catch (RejectedExecutionException e) {
+            logger.debug("Not pre-creating authentication request, too many in progress");
+            return null;
+        }
+
+        String slotId = UUID.randomUUID().toString();
+        slots.put(slotId, slot);
+        return slotId;
+    }
+
+    /**
+     * Takes the request held in a slot if it was created with the same settings.
+     * @return the request, or null if the slot is unknown, does not match or its request could not be
+     * created in time
+     */
+    static AuthenticationRequest claim(String slotId, TenantRepoFactory tenantRepoFactory, User user,
+            String policyId, String applicationId, String description) throws NodeProcessException {
+
+        if (slotId == null) {
+            return null;
+        }
+        Slot slot = slots.asMap().remove(slotId);
+        if (slot == null || !slot.matches(tenantRepoFactory, user.getHref(), policyId, applicationId, description)) {
+            return null;
+        }
+
+        long wait = TimeUnit.MILLISECONDS.toNanos(CLAIM_WAIT_MILLIS);
+        Long deadline = IdxCallExecutor.getDeadline();
+        if (deadline != null) {
+            wait = Math.min(wait, deadline - System.nanoTime());
+        }
+        try {
+            return slot.request.get(Math.max(wait, 0), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            logger.debug("Pre-created authentication request not ready in time");
+            return null;
+        } catch (ExecutionException e) {
+            logger.debug("Pre-creating the authentication request failed: {}", e.getCause().getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NodeProcessException(e);
+        }
+    }
+
+    /**
+     * A request being created and the settings it is created with.
+     */
+    private static final class Slot {
+        private final TenantRepoFactory tenantRepoFactory;
+        private final String userHref;
+        private final String policyId;
+        private final String applicationId;
+        private final String description;
+        private final CompletableFuture<AuthenticationRequest> request = new CompletableFuture<>();
+
+        Slot(TenantRepoFactory tenantRepoFactory, String userHref, String policyId, String applicationId,
+                String description) {
+            this.tenantRepoFactory = tenantRepoFactory;
+            this.userHref = userHref;
+            this.policyId = policyId;
+            this.applicationId = applicationId;
+            this.description = description;
+        }
+
+        void create(AuthenticationRequest newRequest) {
+            try {
+                request.complete(IdxCircuitBreaker.callInBackground(tenantRepoFactory, "preCreateAuthRequest",
+                        () -> tenantRepoFactory.getAuthenticationRequestRepo().create(newRequest)));
+            } catch (IdxRestException | NodeProcessException | RuntimeException e) {
+                request.completeExceptionally(e);
+            }
+        }
+
+        boolean matches(TenantRepoFactory tenantRepoFactory, String userHref, String policyId,
+                String applicationId, String description) {
+            return this.tenantRepoFactory == tenantRepoFactory && userHref != null
+                    && userHref.equals(this.userHref) && Objects.equals(this.policyId, policyId)
+                    && Objects.equals(this.applicationId, applicationId) && Objects.equals(this.description, description);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.daon.idxAuthRequestNode;
+
+import com.daon.identityx.rest.model.pojo.AuthenticationRequest;
+import com.identityx.clientSDK.TenantRepoFactory;
+
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+
+/**
+ * Checks the status of an IdentityX authentication request, optionally waiting server-side for it to
+ * leave the PENDING state.
+ *
+ * While waiting, the calling thread polls IdentityX itself with a delay that starts short and doubles up
+ * to a ceiling, so a quick approval is seen almost at once while a slow one costs only a few calls. The
+ * request thread would otherwise sit idle for the wait, so polling on it takes no shared threads and every
+ * waiting login gets its polls however many are waiting. The window also ends at the node's deadline, and
+ * each poll runs with the end of the window as its deadline, so a GET which hangs does not stretch it.
+ */
+final class IdxAuthRequestStatusPoller {
+
+    private static LoggerWrapper logger = new LoggerWrapper();
+
+    static final String PENDING = "PENDING";
+
+    private static final long INITIAL_DELAY_MILLIS = 250;
+    private static final long MAX_DELAY_MILLIS = 2000;
+
+    private IdxAuthRequestStatusPoller() {
+    }
+
+    /**
+     * Returns the status of the authentication request. If it is PENDING and waitMillis is positive, keeps
+     * polling for up to waitMillis and returns the first other status seen, or PENDING if there is none.
+     */
+    static String getStatus(TenantRepoFactory tenantRepoFactory, String authRequestHref, long waitMillis)
+            throws NodeProcessException {
+
+        String status = fetchStatus(tenantRepoFactory, authRequestHref);
+        if (waitMillis <= 0 || !PENDING.equalsIgnoreCase(status)) {
+            return status;
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        Long nodeDeadline = IdxCallExecutor.getDeadline();
+        if (nodeDeadline != null && nodeDeadline - deadline < 0) {
+            deadline = nodeDeadline;
+        }
+
+        long delay = INITIAL_DELAY_MILLIS;
+        while (true) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                logger.debug("Authentication request still pending after {} ms", waitMillis);
+                return PENDING;
+            }
+            try {
+                Thread.sleep(Math.min(delay, remaining));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return PENDING;
+            }
+
+            try {
+                status = IdxCallExecutor.withDeadlineAt(deadline, () -> fetchStatus(tenantRepoFactory, authRequestHref));
+            } catch (IdxTimeoutException e) {
+                //The wait is over while the GET was still running
+                return PENDING;
+            }
+            if (!PENDING.equalsIgnoreCase(status)) {
+                return status;
+            }
+            delay = Math.min(delay * 2, MAX_DELAY_MILLIS);
+        }
+    }
+
+    private static String fetchStatus(TenantRepoFactory tenantRepoFactory, String authRequestHref)
+            throws NodeProcessException {
+
+        logger.debug("Retrieving an AuthenticationRequest with an HREF of {}", authRequestHref);
+
+        AuthenticationRequest request;
+        try {
+            request = IdxAuthRequestCoalescer.get(tenantRepoFactory, authRequestHref);
+        } catch (NodeProcessException e) {
+            logger.debug("An exception occurred while attempting to determine the status of the authentication " +
+                    "request.  Exception: {}", e.getMessage());
+            throw e;
+        }
+        return request.getStatus().toString();
+    }
+}
@@ -20,14 +20,14 @@ package com.daon.idxAuthRequestNode;
 import static com.daon.idxAuthRequestNode.IdxCommon.IDX_HREF_KEY;
 import static com.daon.idxAuthRequestNode.IdxCommon.getTenantRepoFactory;
 import static org.forgerock.openam.auth.node.api.Action.goTo;
-import com.daon.identityx.rest.model.pojo.AuthenticationRequest;
+import com.google.inject.assistedinject.Assisted;
 import com.identityx.clientSDK.TenantRepoFactory;
-import com.identityx.clientSDK.exceptions.IdxRestException;
-import com.identityx.clientSDK.repositories.AuthenticationRequestRepository;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import org.forgerock.json.JsonValue;
+import org.forgerock.openam.annotations.sm.Attribute;
 import org.forgerock.openam.auth.node.api.*;
 import org.forgerock.util.i18n.PreferredLocales;
 
@@ -49,18 +49,47 @@ public class IdxAuthStatusNode implements Node {
      * Configuration for the node.
      */
     public interface Config {
+
+        /**
+         * the number of seconds to wait server-side for a pending request to complete
+         * @return the wait in whole seconds, 0 to return Pending straight away
+         */
+        @Attribute(order = 100)
+        default int serverSideWait() {
+            return 0;
+        }
+
+        /**
+         * the time the node allows for its calls to IdentityX, after which it stops waiting. Any
+         * server-side wait is allowed on top of it.
+         * @return the timeout in whole seconds, 0 to wait as long as the calls take
+         */
+        @Attribute(order = 200)
+        default int requestTimeout() {
+            return 10;
+        }
     }
 
+    private final Config config;
 
     /**
      * Create the node.
      */
     @Inject
-    public IdxAuthStatusNode() {
+    public IdxAuthStatusNode(@Assisted Config config) {
+        this.config = config;
     }
 
     @Override
     public Action process(TreeContext context) throws NodeProcessException {
+        //The server-side wait is not time spent on calls, so it does not come out of their timeout
+        long timeout = config.requestTimeout() <= 0 ? 0
+                : config.requestTimeout() + Math.max(config.serverSideWait(), 0);
+        return IdxCallExecutor.withDeadline(timeout,
+                () -> IdxMetrics.timedNode("IdxAuthStatusNode", context, () -> checkStatus(context)));
+    }
+
+    private Action checkStatus(TreeContext context) throws NodeProcessException {
 
         String username = context.sharedState.get("IdxKeyUserName").asString();
         if (username == null) {
@@ -81,9 +110,16 @@ public class IdxAuthStatusNode implements Node {
             throw new NodeProcessException("Unable to authenticate - HREF not found!");
         }
 
-        String status = getAuthenticationRequestStatus(authHref, tenantRepoFactory);
+        String status;
+        try {
+            status = IdxAuthRequestStatusPoller.getStatus(tenantRepoFactory, authHref,
+                    TimeUnit.SECONDS.toMillis(config.serverSideWait()));
+        } catch (IdxUnavailableException e) {
+            logger.warn("Unable to check authentication request status: {}", e.getMessage());
+            return goTo(FAILED).build();
+        }
         
-        logger.debug("Connected to the IdentityX Server @ [{}]", IdxCommon.getServerName(authHref));
+        logger.debug("Connected to the IdentityX Server @ [{}]", () -> IdxCommon.getServerName(authHref));
         
         if(status.equalsIgnoreCase("COMPLETED_SUCCESSFUL")) {
             return goTo(SUCCESS).build();
@@ -99,25 +135,6 @@ public class IdxAuthStatusNode implements Node {
         }
     }
 
-    private String getAuthenticationRequestStatus(String authRequestHref, TenantRepoFactory tenantRepoFactory) throws
-            NodeProcessException {
-
-        AuthenticationRequestRepository authenticationRequestRepo = tenantRepoFactory.getAuthenticationRequestRepo();
-
-        AuthenticationRequest request;
-        try {
-            request = authenticationRequestRepo.get(authRequestHref);
-        } catch (IdxRestException e) {
-            logger.debug("An exception occurred while attempting to determine the status of the authentication " +
-                    "request.  Exception: " + e.getMessage());
-            throw new NodeProcessException(e);
-        }
-        logger.debug("Retrieving an AuthenticationRequest with an HREF of " + authRequestHref);
-        return request.getStatus().toString();
-	}
-
-
-
     /**
      * Defines the possible outcomes from this node.
      */
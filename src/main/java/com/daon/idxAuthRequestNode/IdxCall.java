@@ -0,0 +1,13 @@
+package com.daon.idxAuthRequestNode;
+
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+
+/**
+ * Work handed to another thread which may make several IdentityX calls, such as a lookup or one step of
+ * a server-side wait.
+ */
+@FunctionalInterface
+interface IdxCall<T> {
+
+    T call() throws NodeProcessException;
+}
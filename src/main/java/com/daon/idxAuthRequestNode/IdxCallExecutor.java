@@ -0,0 +1,197 @@
+package com.daon.idxAuthRequestNode;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.identityx.clientSDK.exceptions.IdxRestException;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.forgerock.openam.auth.node.api.Action;
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+
+/**
+ * Runs IdentityX SDK calls so that a node never waits for them past its deadline.
+ *
+ * A node sets its deadline with {@link #withDeadline}; calls made on that thread while the deadline is
+ * set run on a shared executor and the node waits only for the time remaining. A call still running at
+ * the deadline is cancelled and {@link IdxTimeoutException} is thrown. Calls made without a deadline,
+ * such as background refreshes, run on the calling thread. Work which a node hands to another thread
+ * takes the node's deadline along with {@link #getDeadline} and {@link #withDeadlineAt}.
+ *
+ * The executor uses virtual threads where the JVM supports them. Otherwise it is a pool of
+ * idx.executor.threads threads (default 64) with a queue of idx.executor.queueSize calls (default 256);
+ * calls which do not fit are refused with {@link IdxUnavailableException}.
+ */
+final class IdxCallExecutor {
+
+    private static LoggerWrapper logger = new LoggerWrapper();
+
+    private static final int THREADS = Integer.getInteger("idx.executor.threads", 64);
+    private static final int QUEUE_SIZE = Integer.getInteger("idx.executor.queueSize", 256);
+
+    private static final ThreadLocal<Long> deadline = new ThreadLocal<>();
+
+    private static final ExecutorService executor = newExecutor("idx-call-%d", THREADS, QUEUE_SIZE);
+
+    private IdxCallExecutor() {
+    }
+
+    /**
+     * Runs a node with a deadline for the IdentityX calls it makes.
+     * @param timeoutSeconds the time allowed for the node's calls, 0 for no deadline
+     */
+    static Action withDeadline(long timeoutSeconds, IdxNodeCall call) throws NodeProcessException {
+        if (timeoutSeconds <= 0) {
+            return call.process();
+        }
+        return withDeadlineAt(System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds), call::process);
+    }
+
+    /**
+     * Returns the current thread's deadline as a {@link System#nanoTime} value, or null if it has none.
+     */
+    static Long getDeadline() {
+        return deadline.get();
+    }
+
+    /**
+     * Runs work with the given deadline, usually one taken with {@link #getDeadline} on the thread which
+     * handed over the work.
+     * @param deadlineNanos the deadline as a {@link System#nanoTime} value, null for none
+     */
+    static <T> T withDeadlineAt(Long deadlineNanos, IdxCall<T> call) throws NodeProcessException {
+        Long previous = deadline.get();
+        if (deadlineNanos == null) {
+            deadline.remove();
+        } else {
+            deadline.set(deadlineNanos);
+        }
+        try {
+            return call.call();
+        } finally {
+            if (previous == null) {
+                deadline.remove();
+            } else {
+                deadline.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Makes an IdentityX call, waiting for it no longer than the current thread's deadline.
+     * @throws IdxTimeoutException if the deadline passed before the call completed
+     * @throws IdxUnavailableException if the call could not be started
+     */
+    static <T> T call(String operation, IdxRestCall<T> call) throws IdxRestException, IdxUnavailableException {
+        return call(operation, call, null);
+    }
+
+    /**
+     * Makes an IdentityX call as {@link #call(String, IdxRestCall)} and runs onDone once it has really
+     * finished. When the caller stops waiting at its deadline the SDK's blocking IO carries on regardless,
+     * so onDone then runs only when that IO completes; a call which never started runs it straight away.
+     * @param onDone run exactly once, or null
+     */
+    static <T> T call(String operation, IdxRestCall<T> call, Runnable onDone)
+            throws IdxRestException, IdxUnavailableException {
+
+        Long callDeadline = deadline.get();
+        if (callDeadline == null) {
+            try {
+                return IdxMetrics.timed(operation, call);
+            } finally {
+                done(onDone);
+            }
+        }
+
+        long remaining = callDeadline - System.nanoTime();
+        if (remaining <= 0) {
+            done(onDone);
+            IdxMetrics.recordTimeout(operation);
+            throw new IdxTimeoutException("No time left to call IdentityX " + operation);
+        }
+
+        //Whichever of the task and the caller giving up claims the call first runs onDone
+        AtomicBoolean claimed = new AtomicBoolean();
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                if (!claimed.compareAndSet(false, true)) {
+                    return null;
+                }
+                try {
+                    return IdxMetrics.timed(operation, call);
+                } finally {
+                    done(onDone);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            done(onDone);
+            throw new IdxUnavailableException("Too many IdentityX calls waiting, refused " + operation);
+        }
+
+        try {
+            return future.get(remaining, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            giveUp(future, claimed, onDone);
+            IdxMetrics.recordTimeout(operation);
+            logger.warn("IdentityX call {} did not complete before the node deadline", operation);
+            throw new IdxTimeoutException("IdentityX call " + operation + " timed out");
+        } catch (InterruptedException e) {
+            giveUp(future, claimed, onDone);
+            Thread.currentThread().interrupt();
+            throw new IdxUnavailableException("Interrupted while waiting for IdentityX " + operation);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IdxRestException) {
+                throw (IdxRestException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static void giveUp(Future<?> future, AtomicBoolean claimed, Runnable onDone) {
+        future.cancel(true);
+        if (claimed.compareAndSet(false, true)) {
+            done(onDone);
+        }
+    }
+
+    private static void done(Runnable onDone) {
+        if (onDone != null) {
+            onDone.run();
+        }
+    }
+
+    /**
+     * Returns an executor running each task on a new virtual thread where the JVM supports them, or else
+     * a bounded pool of daemon threads.
+     */
+    static ExecutorService newExecutor(String nameFormat, int threads, int queueSize) {
+        try {
+            //Virtual threads are available from Java 21
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            logger.debug("Virtual threads not available, using a thread pool for {}", nameFormat);
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(Math.max(threads, 1), Math.max(threads, 1),
+                    60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(Math.max(queueSize, 1)),
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat(nameFormat).build());
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+}
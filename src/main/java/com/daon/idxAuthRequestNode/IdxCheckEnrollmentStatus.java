@@ -17,7 +17,6 @@
 
 package com.daon.idxAuthRequestNode;
 
-import static com.daon.idxAuthRequestNode.IdxCommon.findUser;
 
 import org.forgerock.json.JsonValue;
 import org.forgerock.openam.annotations.sm.Attribute;
@@ -34,6 +33,8 @@ import com.google.inject.assistedinject.Assisted;
 import com.identityx.clientSDK.TenantRepoFactory;
 import com.sun.identity.sm.RequiredValueValidator;
 
+import java.util.UUID;
+
 import javax.inject.Inject;
 
 
@@ -101,18 +102,73 @@ public class IdxCheckEnrollmentStatus extends AbstractDecisionNode {
         @Attribute(order = 600)
         String userIdAttribute();
 
+        /**
+         * the time the node allows for its calls to IdentityX, after which it stops waiting
+         * @return the timeout in whole seconds, 0 to wait as long as the calls take
+         */
+        @Attribute(order = 700)
+        default int requestTimeout() {
+            return 10;
+        }
+
+        /**
+         * the policy of the IdentityX Mobile Auth Request node which follows, to create its request in
+         * the background as soon as the user is found
+         * @return the policy name, blank to leave request creation to the mobile node
+         */
+        @Attribute(order = 800)
+        default String mobilePolicyName() {
+            return "";
+        }
+
+        /**
+         * the application of the IdentityX Mobile Auth Request node which follows
+         * @return the application Id
+         */
+        @Attribute(order = 900)
+        default String mobileApplicationId() {
+            return "";
+        }
+
+        /**
+         * the transaction description of the IdentityX Mobile Auth Request node which follows
+         * @return the transactionDescription
+         */
+        @Attribute(order = 1000)
+        default String mobileTransactionDescription() {
+            return "OpenAM has Requested an Authentication";
+        }
+
+        /**
+         * whether to look the user up in a local, periodically rebuilt index of the tenant's users
+         * before searching IdentityX. A user deactivated or deleted in IdentityX is still found in the
+         * index until it is next rebuilt.
+         * @return true to use the index
+         */
+        @Attribute(order = 1100)
+        default boolean useEnrollmentSnapshot() {
+            return false;
+        }
+
     }
 
     private final Config config;
+    private final UUID nodeId;
     private static LoggerWrapper logger = new LoggerWrapper();
 
     @Inject
-    public IdxCheckEnrollmentStatus(@Assisted Config config) {
+    public IdxCheckEnrollmentStatus(@Assisted Config config, @Assisted UUID nodeId) {
         this.config = config;
+        this.nodeId = nodeId;
     }
 
     @Override
     public Action process(TreeContext context) throws NodeProcessException {
+        return IdxCallExecutor.withDeadline(config.requestTimeout(),
+                () -> IdxMetrics.timedNode("IdxCheckEnrollmentStatus", context, () -> checkEnrollment(context)));
+    }
+
+    private Action checkEnrollment(TreeContext context) throws NodeProcessException {
 
         String userIdAttribute;
         //Check for the userIdAttribute in sharedState
@@ -139,33 +195,46 @@ public class IdxCheckEnrollmentStatus extends AbstractDecisionNode {
         
         logger.debug("IdxCheckEnrollmentStatus::Configuration[PathToKeyStore={}, PathToCredentialProperties={}, KeyAlias={}]", keyStore, credentialProperties, keyAlias);
 
-        TenantRepoFactory tenantRepoFactory = IdxTenantRepoFactorySingleton.getInstance(keyStore, jksPassword, credentialProperties, keyAlias, keyPassword).tenantRepoFactory;        
+        TenantRepoFactory tenantRepoFactory = IdxTenantRepoFactoryRegistry.getTenantRepoFactory(keyStore, jksPassword, credentialProperties, keyAlias, keyPassword);
 
-        //Set all config params in SharedState
+        //Downstream nodes resolve the tenant from its handle, so the configuration itself stays out of SharedState
         JsonValue newState = context.sharedState.copy();
+        //A request pre-created for an earlier user or pass through the tree must not be claimed
+        newState.remove(IdxCommon.IDX_PRECREATED_REQUEST_KEY);
         
-        newState.put("IdxPathToKeyStore", keyStore);
-        newState.put("IdxPathToCredentialProperties", credentialProperties);
-        newState.put("IdxJksPassword", jksPassword);
-        newState.put("IdxKeyAlias", keyAlias);
-        newState.put("IdxKeyPassword", keyPassword);
+        String tenantHandle = IdxTenantRepoFactoryRegistry.fingerprint(keyStore, credentialProperties, keyAlias);
+        newState.put(IdxCommon.IDX_TENANT_HANDLE_KEY, tenantHandle);
+        //Lets downstream nodes on other servers of the cluster initialise the tenant from this node's configuration
+        newState.put(IdxCommon.IDX_TENANT_NODE_KEY, nodeId.toString());
         newState.put("IdxKeyUserName", username);
 
-        User user = findUser(username, tenantRepoFactory);
+        User user = config.useEnrollmentSnapshot()
+                ? IdxEnrollmentSnapshot.findUser(tenantHandle, tenantRepoFactory, username)
+                : IdxUserCache.findUser(tenantRepoFactory, username);
         
         if (user == null) {
             logger.error("FATAL: UserID=[{}] not found in IdentityX", username);
             return goTo(false).replaceSharedState(newState).build();
         }
         
-        logger.debug("Connected to the IdentityX Server @ [{}]", IdxCommon.getServerName(user.getHref()));
+        logger.debug("Connected to the IdentityX Server @ [{}]", () -> IdxCommon.getServerName(user.getHref()));
         logger.debug("User found with ID {}", username);
         
-        newState.put(IdxCommon.IDX_USER_HREF_KEY, user.getHref());
-        newState.put(IdxCommon.IDX_USER_INTERNAL_ID_KEY, user.getId());
-		newState.put(IdxCommon.IDX_USER_ID_KEY, user.getUserId());
+        IdxUserHandle userHandle = IdxUserHandle.of(user);
+        userHandle.putInto(newState);
+
+        if (StringUtils.isNotBlank(config.mobilePolicyName()) && StringUtils.isNotBlank(config.mobileApplicationId())) {
+            String slotId = IdxAuthRequestPool.preCreate(tenantRepoFactory, userHandle.toUser(),
+                    config.mobilePolicyName(), config.mobileApplicationId(), config.mobileTransactionDescription(),
+                    context.sharedState.get(SharedStateConstants.USERNAME).asString());
+            if (slotId != null) {
+                newState.put(IdxCommon.IDX_PRECREATED_REQUEST_KEY, slotId);
+            }
+        }
 		
-		logger.debug("Added to SharedState - User Id=[{}] UserId=[{}] Href=[{}]", user.getId(), user.getUserId(), user.getHref());
+		if (logger.isDebugEnabled()) {
+			logger.debug("Added to SharedState - User Id=[{}] UserId=[{}] Href=[{}]", user.getId(), user.getUserId(), user.getHref());
+		}
 
         return goTo(true).replaceSharedState(newState).build();
     }
@@ -0,0 +1,169 @@
+package com.daon.idxAuthRequestNode;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.identityx.clientSDK.TenantRepoFactory;
+import com.identityx.clientSDK.exceptions.IdxRestException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-tenant circuit breaker and bulkhead around IdentityX calls.
+ *
+ * Each tenant allows a limited number of concurrent calls; a call arriving when all are in use fails at
+ * once rather than tying up another AM thread. A call holds its place until it has really finished, even
+ * after the node stopped waiting for it at its deadline, so the limit bounds the calls actually in flight
+ * against a slow IdentityX. Calls which fail to reach IdentityX, get a 5xx response,
+ * time out or take longer than the latency budget count as failures; errors caused by the request itself,
+ * such as a 4xx response, do not. After enough consecutive failures the breaker opens and every call
+ * fails at once for the open period. After that a single probe call is let through: if it succeeds the
+ * breaker closes, otherwise it opens again.
+ *
+ * Calls refused by the breaker or the bulkhead throw {@link IdxUnavailableException}. Calls are made
+ * through {@link IdxCallExecutor}, so a call which runs past the node's deadline counts as a failure.
+ *
+ * Bulk background work, such as rebuilding an enrollment snapshot, pre-creating authentication requests
+ * or a batch user check, goes through a second breaker per tenant allowing
+ * idx.breaker.backgroundMaxConcurrent calls (default 16), so it neither takes the nodes' permits nor opens
+ * their breaker.
+ *
+ * Tuned with idx.breaker.maxConcurrent (default 50), idx.breaker.slowCallMillis (default 3000),
+ * idx.breaker.failureThreshold (default 5, 0 disables the breaker) and idx.breaker.openSeconds
+ * (default 30).
+ */
+final class IdxCircuitBreaker {
+
+    private static LoggerWrapper logger = new LoggerWrapper();
+
+    private static final int MAX_CONCURRENT = Integer.getInteger("idx.breaker.maxConcurrent", 50);
+    private static final long SLOW_CALL_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("idx.breaker.slowCallMillis", 3000));
+    private static final int FAILURE_THRESHOLD = Integer.getInteger("idx.breaker.failureThreshold", 5);
+    private static final long OPEN_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("idx.breaker.openSeconds", 30));
+    private static final int BACKGROUND_MAX_CONCURRENT = Integer.getInteger("idx.breaker.backgroundMaxConcurrent", 16);
+
+    private static final LoadingCache<TenantRepoFactory, Breaker> breakers = newBreakers(MAX_CONCURRENT);
+    private static final LoadingCache<TenantRepoFactory, Breaker> backgroundBreakers =
+            newBreakers(BACKGROUND_MAX_CONCURRENT);
+
+    private IdxCircuitBreaker() {
+    }
+
+    /**
+     * Makes an IdentityX call for a tenant through its breaker and bulkhead.
+     * @throws IdxUnavailableException if the call was not made because the tenant is unavailable
+     */
+    static <T> T call(TenantRepoFactory tenantRepoFactory, String operation, IdxRestCall<T> call)
+            throws IdxRestException, IdxUnavailableException {
+
+        if (FAILURE_THRESHOLD <= 0 && MAX_CONCURRENT <= 0) {
+            return IdxCallExecutor.call(operation, call);
+        }
+        return breakers.getUnchecked(tenantRepoFactory).call(operation, call);
+    }
+
+    /**
+     * Makes a background IdentityX call for a tenant through its background breaker and bulkhead.
+     * @throws IdxUnavailableException if the call was not made because the tenant is unavailable
+     */
+    static <T> T callInBackground(TenantRepoFactory tenantRepoFactory, String operation, IdxRestCall<T> call)
+            throws IdxRestException, IdxUnavailableException {
+
+        if (FAILURE_THRESHOLD <= 0 && BACKGROUND_MAX_CONCURRENT <= 0) {
+            return IdxCallExecutor.call(operation, call);
+        }
+        return backgroundBreakers.getUnchecked(tenantRepoFactory).call(operation, call);
+    }
+
+    private static LoadingCache<TenantRepoFactory, Breaker> newBreakers(int maxConcurrent) {
+        //Weak keys compare factories by identity and let reloaded tenants be collected
+        return CacheBuilder.newBuilder()
+                .weakKeys()
+                .build(new CacheLoader<TenantRepoFactory, Breaker>() {
+                    @Override
+                    public Breaker load(TenantRepoFactory key) {
+                        return new Breaker(maxConcurrent);
+                    }
+                });
+    }
+
+    /**
+     * The state of one tenant.
+     */
+    private static final class Breaker {
+
+        private final Semaphore permits;
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final AtomicBoolean probing = new AtomicBoolean();
+        private volatile long openUntil;
+
+        Breaker(int maxConcurrent) {
+            this.permits = maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null;
+        }
+
+        <T> T call(String operation, IdxRestCall<T> call) throws IdxRestException, IdxUnavailableException {
+            boolean probe = false;
+            if (openUntil != 0) {
+                if (System.currentTimeMillis() < openUntil || !probing.compareAndSet(false, true)) {
+                    throw new IdxUnavailableException("IdentityX unavailable, circuit open for " + operation);
+                }
+                probe = true;
+            }
+
+            if (permits != null && !permits.tryAcquire()) {
+                if (probe) {
+                    probing.set(false);
+                }
+                throw new IdxUnavailableException("IdentityX unavailable, too many calls in flight for " + operation);
+            }
+
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                T result = IdxCallExecutor.call(operation, call, permits == null ? null : permits::release);
+                failed = System.nanoTime() - start > SLOW_CALL_NANOS;
+                return result;
+            } catch (IdxRestException e) {
+                failed = isServerFailure(e);
+                throw e;
+            } finally {
+                record(operation, failed, probe);
+            }
+        }
+
+        /**
+         * Whether the error is IdentityX's rather than the request's: no response at all, a request
+         * timeout or a 5xx response.
+         */
+        private static boolean isServerFailure(IdxRestException e) {
+            int status = e.getHttpStatus();
+            return status <= 0 || status == 408 || status >= 500;
+        }
+
+        private void record(String operation, boolean failed, boolean probe) {
+            if (FAILURE_THRESHOLD <= 0) {
+                return;
+            }
+            if (!failed) {
+                consecutiveFailures.set(0);
+                if (probe) {
+                    logger.warn("IdentityX calls succeeding again, closing circuit");
+                    openUntil = 0;
+                    probing.set(false);
+                }
+                return;
+            }
+            if (probe || consecutiveFailures.incrementAndGet() >= FAILURE_THRESHOLD) {
+                if (!probe && openUntil == 0) {
+                    logger.warn("IdentityX call {} failed {} times in a row, opening circuit for {} ms", operation,
+                            FAILURE_THRESHOLD, OPEN_MILLIS);
+                }
+                openUntil = System.currentTimeMillis() + OPEN_MILLIS;
+                probing.set(false);
+            }
+        }
+    }
+}
@@ -2,46 +2,67 @@ package com.daon.idxAuthRequestNode;
 
 import com.daon.identityx.rest.model.def.UserStatusEnum;
 import com.daon.identityx.rest.model.pojo.User;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.identityx.clientSDK.TenantRepoFactory;
 import com.identityx.clientSDK.collections.UserCollection;
 import com.identityx.clientSDK.exceptions.IdxRestException;
 import com.identityx.clientSDK.queryHolders.UserQueryHolder;
 import com.identityx.clientSDK.repositories.UserRepository;
+import com.iplanet.sso.SSOException;
+import com.sun.identity.sm.SMSException;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Optional;
 
+import org.forgerock.guice.core.InjectorHolder;
 import org.forgerock.openam.auth.node.api.NodeProcessException;
+import org.forgerock.openam.auth.node.api.SharedStateConstants;
 import org.forgerock.openam.auth.node.api.TreeContext;
+import org.forgerock.openam.core.realms.RealmLookupException;
+import org.forgerock.openam.core.realms.Realms;
+import org.forgerock.openam.sm.AnnotatedServiceRegistry;
 import org.forgerock.openam.utils.StringUtils;
 
 class IdxCommon {
     
-    static ObjectMapper objectMapper = new ObjectMapper();
-    
     private static LoggerWrapper logger = new LoggerWrapper();
     
     static final String IDX_HREF_KEY = "idx-auth-ref-shared-state-key";
+    //No longer written; read only by IdxUserHandle for sessions started on 1.4.0 or earlier. Remove with that reader
     static final String IDX_USER_KEY = "idx-user-object-shared-state-key";
     
     static final String IDX_USER_HREF_KEY = "idx-user-href-shared-state-key";
     static final String IDX_USER_INTERNAL_ID_KEY = "idx-user-internal-id-shared-state-key";
     static final String IDX_USER_ID_KEY = "idx-user-id-shared-state-key";
     static final String IDX_AUTH_RESPONSE_KEY =  "idx-fido-auth-response-shared-state-key";
+    static final String IDX_TENANT_HANDLE_KEY = "idx-tenant-handle-shared-state-key";
+    static final String IDX_TENANT_NODE_KEY = "idx-tenant-node-shared-state-key";
+    static final String IDX_PRECREATED_REQUEST_KEY = "idx-precreated-request-shared-state-key";
     
     static final String IDX_AUTH_RESPONSE_PROPERTY_NAME = "fidoAuthenticationResponse";
     static final String IDX_AUTH_REQUEST_TYPE = "FI";
     
     
     static User findUser(String userId, TenantRepoFactory tenantRepoFactory) throws NodeProcessException {
+        return findUser(userId, tenantRepoFactory, false);
+    }
+
+    /**
+     * Searches for the ACTIVE user with the given userId.
+     * @param background whether the search is bulk background work, made through the tenant's background
+     * circuit breaker rather than that of the nodes
+     */
+    static User findUser(String userId, TenantRepoFactory tenantRepoFactory, boolean background)
+            throws NodeProcessException {
         UserRepository userRepo = tenantRepoFactory.getUserRepo();
         UserQueryHolder holder = new UserQueryHolder();
         holder.getSearchSpec().setUserId(userId);
         holder.getSearchSpec().setStatus(UserStatusEnum.ACTIVE);
         UserCollection userCollection;
         try {
-            userCollection = userRepo.list(holder);
+            userCollection = background
+                    ? IdxCircuitBreaker.callInBackground(tenantRepoFactory, "findUser", () -> userRepo.list(holder))
+                    : IdxCircuitBreaker.call(tenantRepoFactory, "findUser", () -> userRepo.list(holder));
         } catch (IdxRestException e) {
             throw new NodeProcessException(e);
         }
@@ -67,55 +88,95 @@ class IdxCommon {
     static TenantRepoFactory getTenantRepoFactory(TreeContext context) throws NodeProcessException {
         TenantRepoFactory tenantRepoFactory;
 
-        //Pull these config values from SharedState. These are in the IdxCheckEnrollmentStatus node
-        String pathToKeyStore = context.sharedState.get("IdxPathToKeyStore").asString();
-        if (pathToKeyStore == null) {
-            logger.error("Error: Path to JKS KeyStore not found in SharedState!");
-            throw new NodeProcessException("Path to JKS KeyStore not found!");
+        //The tenant handle is placed in SharedState by the IdxCheckEnrollmentStatus node
+        String tenantHandle = context.sharedState.get(IDX_TENANT_HANDLE_KEY).asString();
+        if (tenantHandle == null) {
+            tenantRepoFactory = getLegacyTenantRepoFactory(context);
+        } else {
+            tenantRepoFactory = IdxTenantRepoFactoryRegistry.getTenantRepoFactory(tenantHandle);
+            if (tenantRepoFactory == null) {
+                //Another server in the cluster ran IdxCheckEnrollmentStatus, so initialise the tenant from its configuration
+                tenantRepoFactory = getConfiguredTenantRepoFactory(context, tenantHandle);
+            }
         }
 
-        String pathToCredentialProperties = context.sharedState.get("IdxPathToCredentialProperties").asString();
-
-        if (pathToCredentialProperties == null) {
-            logger.error("Error: Path to credential.properties file not found in SharedState!");
-            throw new NodeProcessException("Path to credential.properties file not found!");
+        if (tenantRepoFactory != null) {
+            logger.debug("Successfully Initialised the TenantRepoFactory");
+        } else {
+        	logger.error("Failure to Initialised the TenantRepoFactory");
+            throw new NodeProcessException("Error creating tenantRepoFactory");
         }
 
-        String jksPassword = context.sharedState.get("IdxJksPassword").asString();
-        if (jksPassword == null) {
-            logger.error("Error: JKS Password not found in SharedState!");
-            throw new NodeProcessException("JKS password not found in SharedState!");
+        return tenantRepoFactory;
+    }
+
+    /**
+     * Initialises the tenant from the realm configuration of the IdxCheckEnrollmentStatus node whose id
+     * that node placed in SharedState, for when the tenant is not yet initialised on this server. Fails if
+     * the node has since been configured with another tenant, rather than switching tenants mid-session.
+     */
+    private static TenantRepoFactory getConfiguredTenantRepoFactory(TreeContext context, String tenantHandle)
+            throws NodeProcessException {
+        String nodeId = context.sharedState.get(IDX_TENANT_NODE_KEY).asString();
+        String realm = context.sharedState.get(SharedStateConstants.REALM).asString();
+        if (nodeId == null || realm == null) {
+            logger.error("Error: IdentityX tenant [{}] is not initialised on this server!", tenantHandle);
+            throw new NodeProcessException("IdentityX tenant not initialised on this server and the " +
+                    "IdxCheckEnrollmentStatus node which selected it is unknown! Make sure IdxCheckEnrollmentStatus " +
+                    "node is in the tree!");
         }
 
-        String keyAlias = context.sharedState.get("IdxKeyAlias").asString();
-        if (keyAlias == null) {
-            logger.error("Error: Key Alias not found in SharedState!");
-            throw new NodeProcessException("Key Alias not found in SharedState!");
+        Optional<IdxCheckEnrollmentStatus.Config> config;
+        try {
+            config = InjectorHolder.getInstance(AnnotatedServiceRegistry.class)
+                    .getRealmInstance(IdxCheckEnrollmentStatus.Config.class, Realms.of(realm), nodeId);
+        } catch (RealmLookupException | SSOException | SMSException e) {
+            throw new NodeProcessException(e);
+        }
+        if (!config.isPresent()) {
+            logger.error("Error: IdxCheckEnrollmentStatus node [{}] not found in realm [{}]!", nodeId, realm);
+            throw new NodeProcessException("IdxCheckEnrollmentStatus node configuration not found!");
         }
 
-        String keyPassword = context.sharedState.get("IdxKeyPassword").asString();
-        
-        if (keyPassword == null) {
-            logger.error("Error: Key Password not found in SharedState!");
-            throw new NodeProcessException("Key password not found in SharedState!");
+        IdxCheckEnrollmentStatus.Config tenant = config.get();
+        String configuredHandle = IdxTenantRepoFactoryRegistry.fingerprint(tenant.pathToKeyStore(),
+                tenant.pathToCredentialProperties(), tenant.keyAlias());
+        if (!configuredHandle.equals(tenantHandle)) {
+            logger.error("Error: IdxCheckEnrollmentStatus node [{}] now uses IdentityX tenant [{}], not [{}]!", nodeId,
+                    configuredHandle, tenantHandle);
+            throw new NodeProcessException("IdxCheckEnrollmentStatus node configuration changed during the " +
+                    "authentication! Restart the authentication.");
         }
 
-        tenantRepoFactory = IdxTenantRepoFactorySingleton.getInstance(pathToKeyStore, jksPassword, pathToCredentialProperties, keyAlias, keyPassword).tenantRepoFactory;
+        logger.debug("Initialising IdentityX tenant [{}] from IdxCheckEnrollmentStatus node [{}]", tenantHandle, nodeId);
+        return IdxTenantRepoFactoryRegistry.getTenantRepoFactory(tenant.pathToKeyStore(),
+                String.valueOf(tenant.jksPassword()), tenant.pathToCredentialProperties(), tenant.keyAlias(),
+                String.valueOf(tenant.keyPassword()));
+    }
 
-        if (tenantRepoFactory != null) {
-            logger.debug("Successfully Initialised the TenantRepoFactory");
-        } else {
-        	logger.error("Failure to Initialised the TenantRepoFactory");
-            throw new NodeProcessException("Error creating tenantRepoFactory");
+    /**
+     * Resolves the tenant from the configuration values placed in SharedState by earlier versions of the
+     * IdxCheckEnrollmentStatus node, so that authentications in flight during an upgrade can complete.
+     */
+    private static TenantRepoFactory getLegacyTenantRepoFactory(TreeContext context) throws NodeProcessException {
+        String pathToKeyStore = context.sharedState.get("IdxPathToKeyStore").asString();
+        String pathToCredentialProperties = context.sharedState.get("IdxPathToCredentialProperties").asString();
+        String jksPassword = context.sharedState.get("IdxJksPassword").asString();
+        String keyAlias = context.sharedState.get("IdxKeyAlias").asString();
+        String keyPassword = context.sharedState.get("IdxKeyPassword").asString();
+
+        if (pathToKeyStore == null || pathToCredentialProperties == null || jksPassword == null || keyAlias == null
+                || keyPassword == null) {
+            logger.error("Error: IdentityX tenant handle not found in SharedState!");
+            throw new NodeProcessException("IdentityX tenant handle not found in SharedState! Make sure " +
+                    "IdxCheckEnrollmentStatus node is in the tree!");
         }
 
-        return tenantRepoFactory;
+        return IdxTenantRepoFactoryRegistry.getTenantRepoFactory(pathToKeyStore, jksPassword, pathToCredentialProperties, keyAlias, keyPassword);
     }
     
     static String getServerName(String href) {
 
-		logger.info("Entering getServerName");
-
 		String server = null;
 
 		if (StringUtils.isNotEmpty(href)) {
@@ -140,7 +201,6 @@ class IdxCommon {
 			}
 		}
 
-		logger.info("Exiting getServerName");
 		return server;
 	}
 }
@@ -0,0 +1,586 @@
+package com.daon.idxAuthRequestNode;
+
+import com.daon.identityx.rest.model.def.UserStatusEnum;
+import com.daon.identityx.rest.model.pojo.User;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.identityx.clientSDK.TenantRepoFactory;
+import com.identityx.clientSDK.collections.UserCollection;
+import com.identityx.clientSDK.exceptions.IdxRestException;
+import com.identityx.clientSDK.queryHolders.UserQueryHolder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+
+/**
+ * A local, periodically rebuilt index of the ACTIVE users of a tenant, used by IdxCheckEnrollmentStatus
+ * when configured to answer from it instead of searching IdentityX.
+ *
+ * Each tenant's index is a file in idx.snapshot.dir (default idx-snapshots in java.io.tmpdir) named after
+ * the tenant handle and the time it was built. It holds a Bloom filter of the userIds followed by the
+ * userId, id and href of every user, sorted by userId. The filter is read onto the heap and the rest of the
+ * file is memory-mapped and binary searched, so a lookup reads a handful of pages and users who are not in
+ * the index are mostly rejected without touching the file. The newest file left by an earlier run is
+ * opened in the background when the tenant is first seen; until then users are searched for in IdentityX.
+ *
+ * The files hold userIds, so on file systems with POSIX permissions the directory is created, or an
+ * existing one restricted, to be accessible by its owner only, and rebuilds fail if that is not possible.
+ * Elsewhere idx.snapshot.dir should be set to a private directory. Each rebuild writes a new file and then
+ * deletes the older ones. A replaced file stays mapped until its buffer is garbage collected, and where a
+ * mapped file cannot be deleted, as on Windows, it is left for a later rebuild to delete.
+ *
+ * The index is rebuilt in the background every idx.snapshot.refreshMinutes (default 60) by listing the
+ * tenant's ACTIVE users idx.snapshot.pageSize at a time (default 500), through a circuit breaker and
+ * bulkhead of its own so a rebuild cannot hold up or trip those of the nodes. Listed users are sorted in
+ * runs of at most idx.snapshot.runSize users (default 50000), spilled to disk and merged into the new file,
+ * so a rebuild holds no more than one run in memory.
+ *
+ * A userId not in the index, or any userId once the index is older than idx.snapshot.maxAgeMinutes
+ * (default 120), for instance because rebuilds keep failing, is searched for in IdentityX through
+ * IdxUserCache as before, so users added since the last rebuild are found.
+ *
+ * There is no incremental sync between rebuilds; each rebuild is a full listing of ACTIVE users. A user
+ * deactivated or deleted in IdentityX is therefore still reported ACTIVE from the index until the next
+ * successful rebuild, and for up to idx.snapshot.maxAgeMinutes if rebuilds fail. Positive hits are not
+ * re-checked live, since that would leave the index nothing to answer.
+ */
+final class IdxEnrollmentSnapshot {
+
+    private static LoggerWrapper logger = new LoggerWrapper();
+
+    private static final Path DIRECTORY = Paths.get(System.getProperty("idx.snapshot.dir",
+            Paths.get(System.getProperty("java.io.tmpdir"), "idx-snapshots").toString()));
+    private static final long REFRESH_MILLIS = TimeUnit.MINUTES.toMillis(Long.getLong("idx.snapshot.refreshMinutes", 60));
+    private static final long MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(Long.getLong("idx.snapshot.maxAgeMinutes", 120));
+    private static final int PAGE_SIZE = Integer.getInteger("idx.snapshot.pageSize", 500);
+    private static final int RUN_SIZE = Integer.getInteger("idx.snapshot.runSize", 50000);
+
+    private static final int MAGIC = 0x49445853;
+    private static final int VERSION = 1;
+    private static final double BLOOM_FPP = 0.01;
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rwx------");
+
+    private static final ConcurrentMap<String, Tenant> tenants = new ConcurrentHashMap<>();
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("idx-snapshot-%d").build());
+
+    private IdxEnrollmentSnapshot() {
+    }
+
+    /**
+     * Returns the ACTIVE user with the given userId, or null if there is none, answering from the index
+     * of the tenant with the given handle when it can.
+     */
+    static User findUser(String tenantHandle, TenantRepoFactory tenantRepoFactory, String userId)
+            throws NodeProcessException {
+
+        //Creating a Tenant only schedules its work, so nothing blocks inside the map's compute
+        Tenant tenant = tenants.computeIfAbsent(tenantHandle, Tenant::new);
+
+        User user = tenant.find(userId);
+        if (user != null) {
+            return user;
+        }
+        return IdxUserCache.findUser(tenantRepoFactory, userId);
+    }
+
+    /**
+     * The index of one tenant. Its files are only opened, written and deleted on the scheduler thread.
+     */
+    private static final class Tenant {
+        private final String handle;
+        private volatile Index index;
+
+        Tenant(String handle) {
+            this.handle = handle;
+            scheduler.execute(this::start);
+        }
+
+        void start() {
+            long firstRebuild = 0;
+            Path latest = null;
+            try {
+                prepareDirectory();
+                latest = latestFile();
+                if (latest != null) {
+                    index = Index.open(latest);
+                    firstRebuild = Math.max(REFRESH_MILLIS - index.age(), 0);
+                    logger.debug("Opened enrollment snapshot of tenant {} with {} users", handle, index.count);
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Cannot open enrollment snapshot [{}]: {}", latest != null ? latest : DIRECTORY,
+                        e.getMessage());
+            }
+            scheduler.scheduleWithFixedDelay(this::rebuild, firstRebuild, Math.max(REFRESH_MILLIS, 1000),
+                    TimeUnit.MILLISECONDS);
+        }
+
+        User find(String userId) {
+            Index current = index;
+            if (current == null || current.age() > MAX_AGE_MILLIS) {
+                return null;
+            }
+            return current.find(userId);
+        }
+
+        void rebuild() {
+            long start = System.currentTimeMillis();
+            try {
+                TenantRepoFactory tenantRepoFactory = IdxTenantRepoFactoryRegistry.getTenantRepoFactory(handle);
+                if (tenantRepoFactory == null) {
+                    return;
+                }
+                prepareDirectory();
+                Path file = DIRECTORY.resolve(handle + "." + start + ".idx");
+                try (IndexWriter writer = new IndexWriter(file, start)) {
+                    listActiveUsers(tenantRepoFactory, writer);
+                    writer.finish();
+                }
+                index = Index.open(file);
+                deleteOlderFiles(file);
+                logger.debug("Rebuilt enrollment snapshot of tenant {} with {} users in {} ms", handle, index.count,
+                        System.currentTimeMillis() - start);
+            } catch (IdxRestException | NodeProcessException | IOException | RuntimeException e) {
+                logger.warn("Rebuilding enrollment snapshot of tenant {} failed: {}", handle, e.getMessage());
+            }
+        }
+
+        /**
+         * Returns the most recently built index file of the tenant, or null if there is none.
+         */
+        private Path latestFile() throws IOException {
+            Path latest = null;
+            long latestMillis = Long.MIN_VALUE;
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(DIRECTORY, handle + ".*.idx")) {
+                for (Path candidate : files) {
+                    String name = candidate.getFileName().toString();
+                    try {
+                        long builtMillis = Long.parseLong(name.substring(handle.length() + 1, name.length() - 4));
+                        if (builtMillis > latestMillis) {
+                            latest = candidate;
+                            latestMillis = builtMillis;
+                        }
+                    } catch (NumberFormatException e) {
+                        logger.debug("Ignoring unexpected enrollment snapshot file [{}]", candidate);
+                    }
+                }
+            }
+            return latest;
+        }
+
+        /**
+         * Deletes the tenant's files other than the current one, leaving any the platform will not delete,
+         * such as a file still mapped on Windows, for the next rebuild.
+         */
+        private void deleteOlderFiles(Path current) throws IOException {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(DIRECTORY, handle + ".*")) {
+                for (Path old : files) {
+                    if (!old.equals(current)) {
+                        try {
+                            Files.delete(old);
+                        } catch (IOException e) {
+                            logger.debug("Cannot delete enrollment snapshot [{}] yet: {}", old, e.getMessage());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the snapshot directory, accessible by its owner only where the file system has POSIX
+     * permissions. An existing directory, such as one left in a shared temporary directory, is restricted
+     * the same way, which fails unless it belongs to this process's user.
+     */
+    private static void prepareDirectory() throws IOException {
+        if (!DIRECTORY.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.createDirectories(DIRECTORY);
+            return;
+        }
+        if (!Files.isDirectory(DIRECTORY)) {
+            Files.createDirectories(DIRECTORY, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+        }
+        if (!Files.getPosixFilePermissions(DIRECTORY).equals(OWNER_ONLY)) {
+            Files.setPosixFilePermissions(DIRECTORY, OWNER_ONLY);
+        }
+    }
+
+    private static void listActiveUsers(TenantRepoFactory tenantRepoFactory, IndexWriter writer)
+            throws IdxRestException, NodeProcessException, IOException {
+
+        int pageSize = Math.max(PAGE_SIZE, 1);
+        //IdentityX may return fewer users than asked for, so only an empty page ends the listing
+        int offset = 0;
+        while (true) {
+            UserQueryHolder holder = new UserQueryHolder();
+            holder.getSearchSpec().setStatus(UserStatusEnum.ACTIVE);
+            holder.getPageControl().setOffset(offset);
+            holder.getPageControl().setLimit(pageSize);
+            UserCollection page = IdxCircuitBreaker.callInBackground(tenantRepoFactory, "listUsers",
+                    () -> tenantRepoFactory.getUserRepo().list(holder));
+
+            User[] users = page == null ? null : page.getItems();
+            if (users == null || users.length == 0) {
+                break;
+            }
+            for (User user : users) {
+                if (user.getUserId() != null && user.getHref() != null) {
+                    writer.add(new Entry(user));
+                }
+            }
+            offset += users.length;
+        }
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * An index file opened for lookups. The file is laid out as:
+     * <pre>
+     * int magic, int version, long createdMillis, int count
+     * int filterLength, byte[filterLength] Bloom filter of the userIds
+     * int[count] offset of each record from the start of the records
+     * records sorted by userId, each a userId, id and href written as unsigned short length and UTF-8
+     * </pre>
+     */
+    static final class Index {
+        private final long createdMillis;
+        private final int count;
+        private final BloomFilter<byte[]> filter;
+        private final MappedByteBuffer buffer;
+        private final int offsetsStart;
+        private final int recordsStart;
+
+        private Index(long createdMillis, int count, BloomFilter<byte[]> filter, MappedByteBuffer buffer,
+                int offsetsStart) {
+            this.createdMillis = createdMillis;
+            this.count = count;
+            this.filter = filter;
+            this.buffer = buffer;
+            this.offsetsStart = offsetsStart;
+            this.recordsStart = offsetsStart + count * 4;
+        }
+
+        static Index open(Path file) throws IOException {
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("Snapshot file is too large");
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a snapshot file");
+            }
+            long createdMillis = buffer.getLong();
+            int count = buffer.getInt();
+            byte[] filterBytes = new byte[buffer.getInt()];
+            buffer.get(filterBytes);
+            BloomFilter<byte[]> filter = BloomFilter.readFrom(new ByteArrayInputStream(filterBytes),
+                    Funnels.byteArrayFunnel());
+            return new Index(createdMillis, count, filter, buffer, buffer.position());
+        }
+
+        long age() {
+            return System.currentTimeMillis() - createdMillis;
+        }
+
+        int size() {
+            return count;
+        }
+
+        User find(String userId) {
+            byte[] key = userId.getBytes(StandardCharsets.UTF_8);
+            if (!filter.mightContain(key)) {
+                return null;
+            }
+            //Only absolute reads are used, which leave the shared buffer untouched
+            ByteBuffer view = buffer;
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int record = recordsStart + view.getInt(offsetsStart + mid * 4);
+                int cmp = compareKey(view, record, key);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    int idStart = record + 2 + key.length;
+                    int hrefStart = idStart + 2 + (view.getShort(idStart) & 0xffff);
+                    return new IdxUserHandle(readField(view, idStart), readField(view, hrefStart), userId).toUser();
+                }
+            }
+            return null;
+        }
+
+        private static int compareKey(ByteBuffer view, int record, byte[] key) {
+            int length = view.getShort(record) & 0xffff;
+            int common = Math.min(length, key.length);
+            for (int i = 0; i < common; i++) {
+                int cmp = (view.get(record + 2 + i) & 0xff) - (key[i] & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return length - key.length;
+        }
+
+        private static String readField(ByteBuffer view, int start) {
+            byte[] field = new byte[view.getShort(start) & 0xffff];
+            for (int i = 0; i < field.length; i++) {
+                field[i] = view.get(start + 2 + i);
+            }
+            return field.length == 0 ? null : new String(field, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Writes an index file from users added in any order. Users are sorted in runs of at most RUN_SIZE,
+     * each spilled to a temporary file, and {@link #finish} merges the runs into the records of the new
+     * file, dropping repeated userIds, before moving it into place. Temporary files are created by
+     * {@link Files#createTempFile}, readable by their owner only where the file system supports it.
+     */
+    static final class IndexWriter implements Closeable {
+        private final Path file;
+        private final long createdMillis;
+        private final int runSize;
+        private final Path runs;
+        private final DataOutputStream runsOut;
+        private final List<Long> runStarts = new ArrayList<>();
+        private final List<Integer> runCounts = new ArrayList<>();
+        private final List<Entry> run = new ArrayList<>();
+        private final List<Path> temps = new ArrayList<>();
+        private long runsSize;
+        private long added;
+
+        IndexWriter(Path file, long createdMillis) throws IOException {
+            this(file, createdMillis, RUN_SIZE);
+        }
+
+        IndexWriter(Path file, long createdMillis, int runSize) throws IOException {
+            this.file = file;
+            this.createdMillis = createdMillis;
+            this.runSize = Math.max(runSize, 1);
+            runs = newTemp();
+            runsOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(runs)));
+        }
+
+        void add(Entry entry) throws IOException {
+            run.add(entry);
+            added++;
+            if (run.size() >= runSize) {
+                spill();
+            }
+        }
+
+        void finish() throws IOException {
+            spill();
+            runsOut.close();
+
+            BloomFilter<byte[]> filter = BloomFilter.create(Funnels.byteArrayFunnel(), Math.max(added, 1), BLOOM_FPP);
+            Path offsets = newTemp();
+            Path records = newTemp();
+            int count = 0;
+            List<RunReader> readers = new ArrayList<>();
+            try (DataOutputStream offsetsOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(offsets)));
+                    DataOutputStream recordsOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(records)))) {
+                PriorityQueue<RunReader> heads = new PriorityQueue<>((a, b) -> compare(a.head.userId, b.head.userId));
+                for (int i = 0; i < runStarts.size(); i++) {
+                    RunReader reader = new RunReader(runs, runStarts.get(i), runCounts.get(i));
+                    readers.add(reader);
+                    if (reader.next()) {
+                        heads.add(reader);
+                    }
+                }
+                long offset = 0;
+                byte[] last = null;
+                while (!heads.isEmpty()) {
+                    RunReader reader = heads.poll();
+                    Entry entry = reader.head;
+                    if (last == null || compare(last, entry.userId) != 0) {
+                        if (offset > Integer.MAX_VALUE) {
+                            throw new IOException("Snapshot file is too large");
+                        }
+                        filter.put(entry.userId);
+                        offsetsOut.writeInt((int) offset);
+                        entry.write(recordsOut);
+                        offset += entry.size();
+                        count++;
+                        last = entry.userId;
+                    }
+                    if (reader.next()) {
+                        heads.add(reader);
+                    }
+                }
+            } finally {
+                for (RunReader reader : readers) {
+                    reader.close();
+                }
+            }
+
+            Path temp = newTemp();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(createdMillis);
+                out.writeInt(count);
+                ByteArrayOutputStream filterBytes = new ByteArrayOutputStream();
+                filter.writeTo(filterBytes);
+                out.writeInt(filterBytes.size());
+                filterBytes.writeTo(out);
+                Files.copy(offsets, out);
+                Files.copy(records, out);
+            }
+            //The file is new, so the move never replaces one which is still mapped
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            runsOut.close();
+            for (Path temp : temps) {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        private void spill() throws IOException {
+            if (run.isEmpty()) {
+                return;
+            }
+            run.sort((a, b) -> compare(a.userId, b.userId));
+            runStarts.add(runsSize);
+            runCounts.add(run.size());
+            for (Entry entry : run) {
+                entry.write(runsOut);
+                runsSize += entry.size();
+            }
+            run.clear();
+        }
+
+        private Path newTemp() throws IOException {
+            Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            temps.add(temp);
+            return temp;
+        }
+    }
+
+    /**
+     * Reads back one sorted run written by {@link IndexWriter}.
+     */
+    private static final class RunReader implements Closeable {
+        private final DataInputStream in;
+        private int remaining;
+        private Entry head;
+
+        RunReader(Path runs, long start, int count) throws IOException {
+            FileChannel channel = FileChannel.open(runs, StandardOpenOption.READ);
+            channel.position(start);
+            this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            this.remaining = count;
+        }
+
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                head = null;
+                return false;
+            }
+            remaining--;
+            head = Entry.read(in);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * One user as written to an index file.
+     */
+    static final class Entry {
+        private final byte[] userId;
+        private final byte[] id;
+        private final byte[] href;
+
+        Entry(User user) {
+            this(user.getUserId().getBytes(StandardCharsets.UTF_8),
+                    (user.getId() == null ? "" : user.getId()).getBytes(StandardCharsets.UTF_8),
+                    user.getHref().getBytes(StandardCharsets.UTF_8));
+        }
+
+        private Entry(byte[] userId, byte[] id, byte[] href) {
+            this.userId = userId;
+            this.id = id;
+            this.href = href;
+        }
+
+        static Entry read(DataInputStream in) throws IOException {
+            return new Entry(readField(in), readField(in), readField(in));
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            writeField(out, userId);
+            writeField(out, id);
+            writeField(out, href);
+        }
+
+        int size() {
+            return 6 + userId.length + id.length + href.length;
+        }
+
+        private static byte[] readField(DataInputStream in) throws IOException {
+            byte[] field = new byte[in.readUnsignedShort()];
+            in.readFully(field);
+            return field;
+        }
+
+        private static void writeField(DataOutputStream out, byte[] field) throws IOException {
+            out.writeShort(field.length);
+            out.write(field);
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.daon.idxAuthRequestNode;
+
+import com.daon.identityx.rest.model.def.PolicyStatusEnum;
+import com.daon.identityx.rest.model.pojo.Application;
+import com.daon.identityx.rest.model.pojo.Policy;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.identityx.clientSDK.TenantRepoFactory;
+import com.identityx.clientSDK.collections.ApplicationCollection;
+import com.identityx.clientSDK.collections.PolicyCollection;
+import com.identityx.clientSDK.exceptions.IdxRestException;
+import com.identityx.clientSDK.queryHolders.ApplicationQueryHolder;
+import com.identityx.clientSDK.queryHolders.PolicyQueryHolder;
+
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+
+/**
+ * Shared cache of the IdentityX Policy and Application objects referenced in node configuration.
+ *
+ * Entries are keyed by tenant and id and are refreshed in the background once they are older than
+ * the refresh interval. Concurrent misses for the same key are coalesced into a single IdentityX call.
+ * Lookups which find nothing are not cached, so a misconfigured node recovers as soon as the policy
+ * or application is created.
+ *
+ * A policy and an application needed together can be fetched at the same time with
+ * {@link #getPolicyAndApplication}. The parallel lookups run on virtual threads where the JVM supports
+ * them, otherwise on a small pool, and their number is capped; beyond the cap lookups run one after the
+ * other on the calling thread. A parallel lookup runs with the calling node's deadline, or
+ * idx.lookupCache.timeoutMillis for callers without one.
+ *
+ * Tuned with the system properties:
+ * idx.lookupCache.refreshSeconds (default 300), idx.lookupCache.ttlSeconds (default 900, 0 disables
+ * the cache), idx.lookupCache.maxSize (default 1000), idx.lookupCache.parallelism (default 16, 0 disables
+ * parallel lookups) and idx.lookupCache.timeoutMillis (default 10000).
+ */
+final class IdxLookupCache {
+
+    private static LoggerWrapper logger = new LoggerWrapper();
+
+    private static final long REFRESH_SECONDS = Long.getLong("idx.lookupCache.refreshSeconds", 300);
+    private static final long TTL_SECONDS = Long.getLong("idx.lookupCache.ttlSeconds", 900);
+    private static final long MAX_SIZE = Long.getLong("idx.lookupCache.maxSize", 1000);
+    private static final int PARALLELISM = Integer.getInteger("idx.lookupCache.parallelism", 16);
+    private static final long TIMEOUT_MILLIS = Long.getLong("idx.lookupCache.timeoutMillis", 10000);
+
+    private static final ExecutorService refreshExecutor = Executors.newFixedThreadPool(2,
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("idx-lookup-refresh-%d").build());
+
+    private static final ExecutorService lookupExecutor = IdxCallExecutor.newExecutor("idx-lookup-%d",
+            PARALLELISM, PARALLELISM);
+    private static final Semaphore lookupPermits = new Semaphore(Math.max(PARALLELISM, 0));
+
+    private static final LoadingCache<PolicyKey, Policy> policies = newCache(new CacheLoader<PolicyKey, Policy>() {
+        @Override
+        public Policy load(PolicyKey key) throws Exception {
+            return loadPolicy(key);
+        }
+    });
+
+    private static final LoadingCache<ApplicationKey, Application> applications = newCache(
+            new CacheLoader<ApplicationKey, Application>() {
+                @Override
+                public Application load(ApplicationKey key) throws Exception {
+                    return loadApplication(key);
+                }
+            });
+
+    private IdxLookupCache() {
+    }
+
+    /**
+     * Returns the policy with the given id and status.
+     * @throws NodeProcessException if IdentityX cannot be reached or no such policy exists
+     */
+    static Policy getPolicy(TenantRepoFactory tenantRepoFactory, String policyId, PolicyStatusEnum status)
+            throws NodeProcessException {
+        PolicyKey key = new PolicyKey(tenantRepoFactory, policyId, status);
+        if (TTL_SECONDS <= 0) {
+            return loadPolicy(key);
+        }
+        return get(policies, key);
+    }
+
+    /**
+     * Returns the application with the given id.
+     * @throws NodeProcessException if IdentityX cannot be reached or no such application exists
+     */
+    static Application getApplication(TenantRepoFactory tenantRepoFactory, String applicationId)
+            throws NodeProcessException {
+        ApplicationKey key = new ApplicationKey(tenantRepoFactory, applicationId);
+        if (TTL_SECONDS <= 0) {
+            return loadApplication(key);
+        }
+        return get(applications, key);
+    }
+
+    /**
+     * Returns a policy and an application, fetching the two at the same time when neither is cached.
+     * @throws IdxTimeoutException if the lookups do not complete before the calling node's deadline, or
+     * within idx.lookupCache.timeoutMillis if it has none
+     * @throws NodeProcessException if IdentityX cannot be reached or either does not exist
+     */
+    static PolicyAndApplication getPolicyAndApplication(TenantRepoFactory tenantRepoFactory, String policyId,
+            PolicyStatusEnum status, String applicationId) throws NodeProcessException {
+
+        Policy policy = TTL_SECONDS > 0 ? policies.getIfPresent(new PolicyKey(tenantRepoFactory, policyId, status)) : null;
+        Application application = TTL_SECONDS > 0
+                ? applications.getIfPresent(new ApplicationKey(tenantRepoFactory, applicationId)) : null;
+
+        Future<Policy> policyLookup = null;
+        if (policy == null && application == null && lookupPermits.tryAcquire()) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+            Long nodeDeadline = IdxCallExecutor.getDeadline();
+            if (nodeDeadline != null && nodeDeadline - deadline < 0) {
+                deadline = nodeDeadline;
+            }
+            long lookupDeadline = deadline;
+            //Whichever of the lookup and its cancellation claims it first releases the permit
+            AtomicBoolean claimed = new AtomicBoolean();
+            try {
+                policyLookup = lookupExecutor.submit(() -> {
+                    if (!claimed.compareAndSet(false, true)) {
+                        return null;
+                    }
+                    try {
+                        return IdxCallExecutor.withDeadlineAt(lookupDeadline,
+                                () -> getPolicy(tenantRepoFactory, policyId, status));
+                    } finally {
+                        lookupPermits.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                lookupPermits.release();
+            }
+            if (policyLookup != null) {
+                boolean done = false;
+                try {
+                    application = getApplication(tenantRepoFactory, applicationId);
+                    policy = await(policyLookup, deadline, policyId);
+                    done = true;
+                } finally {
+                    if (!done) {
+                        cancel(policyLookup, claimed);
+                    }
+                }
+            }
+        }
+
+        if (policy == null) {
+            policy = getPolicy(tenantRepoFactory, policyId, status);
+        }
+        if (application == null) {
+            application = getApplication(tenantRepoFactory, applicationId);
+        }
+        return new PolicyAndApplication(policy, application);
+    }
+
+    private static Policy await(Future<Policy> lookup, long deadline, String policyId) throws NodeProcessException {
+        try {
+            return lookup.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            IdxMetrics.recordTimeout("listPolicies");
+            throw new IdxTimeoutException("Timed out looking up Policy " + policyId);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NodeProcessException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof NodeProcessException) {
+                throw (NodeProcessException) e.getCause();
+            }
+            throw new NodeProcessException(e.getCause());
+        }
+    }
+
+    /**
+     * Cancels a policy lookup which is no longer awaited, releasing its permit if it never started.
+     */
+    private static void cancel(Future<Policy> lookup, AtomicBoolean claimed) {
+        lookup.cancel(true);
+        if (claimed.compareAndSet(false, true)) {
+            lookupPermits.release();
+        }
+    }
+
+    private static <K, V> LoadingCache<K, V> newCache(CacheLoader<K, V> loader) {
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().maximumSize(MAX_SIZE);
+        if (TTL_SECONDS > 0) {
+            builder.expireAfterWrite(TTL_SECONDS, TimeUnit.SECONDS);
+            if (REFRESH_SECONDS > 0 && REFRESH_SECONDS < TTL_SECONDS) {
+                builder.refreshAfterWrite(REFRESH_SECONDS, TimeUnit.SECONDS);
+            }
+        }
+        return builder.build(CacheLoader.asyncReloading(loader, refreshExecutor));
+    }
+
+    private static <K, V> V get(LoadingCache<K, V> cache, K key) throws NodeProcessException {
+        try {
+            return cache.get(key);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof NodeProcessException) {
+                throw (NodeProcessException) e.getCause();
+            }
+            throw new NodeProcessException(e.getCause());
+        }
+    }
+
+    private static Policy loadPolicy(PolicyKey key) throws NodeProcessException {
+        logger.debug("Loading Policy [{}] from IdentityX", key.policyId);
+
+        PolicyQueryHolder holder = new PolicyQueryHolder();
+        holder.getSearchSpec().setPolicyId(key.policyId);
+        holder.getSearchSpec().setStatus(key.status);
+        PolicyCollection policyCollection;
+        try {
+            policyCollection = IdxCircuitBreaker.call(key.tenantRepoFactory, "listPolicies", () -> key.tenantRepoFactory.getPolicyRepo().list(holder));
+        } catch (IdxRestException e) {
+            throw new NodeProcessException(e);
+        }
+        if (policyCollection.getItems().length > 0) {
+            return policyCollection.getItems()[0];
+        }
+        logger.error("Could not find an active policy with the PolicyId: {}", key.policyId);
+        throw new NodeProcessException("Could not find an active policy with the PolicyId: " + key.policyId);
+    }
+
+    private static Application loadApplication(ApplicationKey key) throws NodeProcessException {
+        logger.debug("Loading Application [{}] from IdentityX", key.applicationId);
+
+        ApplicationQueryHolder holder = new ApplicationQueryHolder();
+        holder.getSearchSpec().setApplicationId(key.applicationId);
+        ApplicationCollection applicationCollection;
+        try {
+            applicationCollection = IdxCircuitBreaker.call(key.tenantRepoFactory, "listApplications",
+                    () -> key.tenantRepoFactory.getApplicationRepo().list(holder));
+        } catch (IdxRestException e) {
+            throw new NodeProcessException(e);
+        }
+        if (applicationCollection.getItems().length > 0) {
+            return applicationCollection.getItems()[0];
+        }
+        logger.debug("No Application was found with this name {}", key.applicationId);
+        throw new NodeProcessException("No Application was found with this name " + key.applicationId);
+    }
+
+    /**
+     * A policy and application looked up together.
+     */
+    static final class PolicyAndApplication {
+        private final Policy policy;
+        private final Application application;
+
+        PolicyAndApplication(Policy policy, Application application) {
+            this.policy = policy;
+            this.application = application;
+        }
+
+        Policy getPolicy() {
+            return policy;
+        }
+
+        Application getApplication() {
+            return application;
+        }
+    }
+
+    /**
+     * Tenants are identified by their TenantRepoFactory instance, so entries for a tenant whose
+     * factory has been rebuilt simply age out.
+     */
+    private static final class PolicyKey {
+        private final TenantRepoFactory tenantRepoFactory;
+        private final String policyId;
+        private final PolicyStatusEnum status;
+
+        PolicyKey(TenantRepoFactory tenantRepoFactory, String policyId, PolicyStatusEnum status) {
+            this.tenantRepoFactory = tenantRepoFactory;
+            this.policyId = policyId;
+            this.status = status;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PolicyKey)) {
+                return false;
+            }
+            PolicyKey other = (PolicyKey) o;
+            return tenantRepoFactory == other.tenantRepoFactory && policyId.equals(other.policyId)
+                    && status == other.status;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(tenantRepoFactory), policyId, status);
+        }
+    }
+
+    private static final class ApplicationKey {
+        private final TenantRepoFactory tenantRepoFactory;
+        private final String applicationId;
+
+        ApplicationKey(TenantRepoFactory tenantRepoFactory, String applicationId) {
+            this.tenantRepoFactory = tenantRepoFactory;
+            this.applicationId = applicationId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ApplicationKey)) {
+                return false;
+            }
+            ApplicationKey other = (ApplicationKey) o;
+            return tenantRepoFactory == other.tenantRepoFactory && applicationId.equals(other.applicationId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(tenantRepoFactory), applicationId);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.daon.idxAuthRequestNode;
+
+import com.identityx.clientSDK.exceptions.IdxRestException;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.openam.auth.node.api.Action;
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+import org.forgerock.openam.auth.node.api.TreeContext;
+
+/**
+ * Timings and counters for the IdentityX calls made by the nodes and for the nodes themselves.
+ *
+ * Every call is timed and counted, with failures counted by exception type, and the number of calls in
+ * flight is tracked per operation. Node invocations are timed and counted by outcome. Measurements are
+ * kept in memory, read by {@link #snapshot()} and published over JMX by {@link IdxMetricsMBean}.
+ */
+final class IdxMetrics {
+
+    static final String CALLBACK_OUTCOME = "CALLBACK";
+    static final String ERROR_OUTCOME = "ERROR";
+
+    private static final ConcurrentMap<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+    private static final InMemoryRegistry registry = new InMemoryRegistry();
+
+    private IdxMetrics() {
+    }
+
+    /**
+     * Returns the measurements held by the in-memory registry along with the current in-flight counts,
+     * keyed by metric name.
+     */
+    static Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = registry.snapshot();
+        inFlight.forEach((operation, count) -> snapshot.put("idx.call." + operation + ".inFlight", (long) count.get()));
+        snapshot.put("idx.authRequestCache.hits", IdxAuthRequestCoalescer.getHitCount());
+        snapshot.put("idx.authRequestCache.coalesced", IdxAuthRequestCoalescer.getCoalescedCount());
+        snapshot.put("idx.authRequestCache.misses", IdxAuthRequestCoalescer.getMissCount());
+        snapshot.put("idx.trace.dropped", IdxTrace.getDroppedCount());
+        return snapshot;
+    }
+
+    static <T> T timed(String operation, IdxRestCall<T> call) throws IdxRestException {
+        AtomicInteger count = inFlight.computeIfAbsent(operation, key -> new AtomicInteger());
+        count.incrementAndGet();
+        long start = System.nanoTime();
+        Throwable error = null;
+        try {
+            return call.call();
+        } catch (IdxRestException | RuntimeException e) {
+            error = e;
+            throw e;
+        } finally {
+            count.decrementAndGet();
+            registry.recordCall(operation, System.nanoTime() - start, error);
+        }
+    }
+
+    static void recordTimeout(String operation) {
+        registry.recordTimeout(operation);
+    }
+
+    static Action timedNode(String node, TreeContext context, IdxNodeCall call) throws NodeProcessException {
+        long start = System.nanoTime();
+        String outcome = ERROR_OUTCOME;
+        JsonValue sharedState = context.sharedState;
+        Throwable error = null;
+        try {
+            Action action = call.process();
+            outcome = action.outcome == null ? CALLBACK_OUTCOME : action.outcome;
+            if (action.sharedState != null) {
+                sharedState = action.sharedState;
+            }
+            return action;
+        } catch (NodeProcessException | RuntimeException e) {
+            error = e;
+            throw e;
+        } finally {
+            long duration = System.nanoTime() - start;
+            registry.recordNode(node, outcome, duration);
+            IdxTrace.nodeEvent(node, outcome, duration, sharedState, error);
+        }
+    }
+
+    /**
+     * Keeps counts and fixed-bucket latency histograms in memory.
+     */
+    private static final class InMemoryRegistry {
+
+        private static final long[] BUCKETS_MILLIS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+        private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+        /**
+         * Records one IdentityX call.
+         * @param operation the operation, for example findUser or createAuthRequest
+         * @param durationNanos how long the call took
+         * @param error the exception thrown by the call, or null if it succeeded
+         */
+        void recordCall(String operation, long durationNanos, Throwable error) {
+            histograms.computeIfAbsent("idx.call." + operation, key -> new Histogram()).record(durationNanos);
+            if (error != null) {
+                increment("idx.call." + operation + ".errors." + error.getClass().getSimpleName());
+            }
+        }
+
+        /**
+         * Records one node invocation.
+         * @param node the node type
+         * @param outcome the outcome taken, CALLBACK when callbacks were sent or ERROR when the node threw
+         * @param durationNanos how long the node took
+         */
+        void recordNode(String node, String outcome, long durationNanos) {
+            histograms.computeIfAbsent("idx.node." + node, key -> new Histogram()).record(durationNanos);
+            increment("idx.node." + node + ".outcome." + outcome);
+        }
+
+        /**
+         * Records a call which a node stopped waiting for at its deadline. The call itself is also
+         * recorded with {@link #recordCall} once it ends.
+         */
+        void recordTimeout(String operation) {
+            increment("idx.call." + operation + ".timeouts");
+        }
+
+        private void increment(String name) {
+            counters.computeIfAbsent(name, key -> new LongAdder()).increment();
+        }
+
+        Map<String, Long> snapshot() {
+            Map<String, Long> snapshot = new TreeMap<>();
+            counters.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+            histograms.forEach((name, histogram) -> histogram.snapshot(name, snapshot));
+            return snapshot;
+        }
+
+        private static final class Histogram {
+
+            private final LongAdder[] buckets = new LongAdder[BUCKETS_MILLIS.length + 1];
+            private final LongAdder count = new LongAdder();
+            private final LongAdder totalNanos = new LongAdder();
+
+            Histogram() {
+                for (int i = 0; i < buckets.length; i++) {
+                    buckets[i] = new LongAdder();
+                }
+            }
+
+            void record(long durationNanos) {
+                long millis = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+                int i = 0;
+                while (i < BUCKETS_MILLIS.length && millis > BUCKETS_MILLIS[i]) {
+                    i++;
+                }
+                buckets[i].increment();
+                count.increment();
+                totalNanos.add(durationNanos);
+            }
+
+            void snapshot(String name, Map<String, Long> snapshot) {
+                snapshot.put(name + ".count", count.sum());
+                snapshot.put(name + ".totalMillis", TimeUnit.NANOSECONDS.toMillis(totalNanos.sum()));
+                long cumulative = 0;
+                for (int i = 0; i < BUCKETS_MILLIS.length; i++) {
+                    cumulative += buckets[i].sum();
+                    snapshot.put(name + ".le." + BUCKETS_MILLIS[i], cumulative);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.daon.idxAuthRequestNode;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Publishes {@link IdxMetrics#snapshot()} over JMX as the read-only attributes of the
+ * com.daon.idxAuthRequestNode:type=IdxMetrics MBean, one attribute per metric name, so the measurements
+ * can be collected by any JMX-based monitoring, such as the Prometheus JMX exporter. It is registered when
+ * the plugin starts and removed when it shuts down.
+ */
+final class IdxMetricsMBean implements DynamicMBean {
+
+    private static LoggerWrapper logger = new LoggerWrapper();
+
+    static final String OBJECT_NAME = "com.daon.idxAuthRequestNode:type=IdxMetrics";
+
+    private IdxMetricsMBean() {
+    }
+
+    /**
+     * Registers the MBean with the platform MBean server, replacing one left by an earlier deployment of
+     * the plugin.
+     */
+    static void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            try {
+                server.registerMBean(new IdxMetricsMBean(), name);
+            } catch (InstanceAlreadyExistsException e) {
+                server.unregisterMBean(name);
+                server.registerMBean(new IdxMetricsMBean(), name);
+            }
+        } catch (JMException | RuntimeException e) {
+            logger.warn("Unable to register the IdentityX metrics MBean: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the MBean from the platform MBean server.
+     */
+    static void unregister() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException | RuntimeException e) {
+            logger.warn("Unable to unregister the IdentityX metrics MBean: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Long value = IdxMetrics.snapshot().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Long> snapshot = IdxMetrics.snapshot();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            Long value = snapshot.get(attribute);
+            if (value != null) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Long> snapshot = IdxMetrics.snapshot();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[snapshot.size()];
+        int i = 0;
+        for (String name : snapshot.keySet()) {
+            attributes[i++] = new MBeanAttributeInfo(name, Long.class.getName(), name, true, false, false);
+        }
+        return new MBeanInfo(IdxMetricsMBean.class.getName(), "IdentityX node metrics", attributes, null, null,
+                null);
+    }
+}
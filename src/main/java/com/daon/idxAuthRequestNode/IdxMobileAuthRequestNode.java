@@ -14,9 +14,7 @@ import org.forgerock.openam.auth.node.api.SharedStateConstants;
 import org.forgerock.openam.auth.node.api.SingleOutcomeNode;
 import org.forgerock.openam.auth.node.api.TreeContext;
 
-import com.daon.identityx.rest.model.pojo.Application;
 import com.daon.identityx.rest.model.pojo.AuthenticationRequest;
-import com.daon.identityx.rest.model.pojo.Policy;
 import com.daon.identityx.rest.model.pojo.User;
 import com.google.inject.assistedinject.Assisted;
 import com.identityx.clientSDK.TenantRepoFactory;
@@ -67,6 +65,15 @@ public class IdxMobileAuthRequestNode extends SingleOutcomeNode {
 		default String transactionDescription() {
 			return "OpenAM has Requested an Authentication";
 		}
+
+		/**
+		 * the time the node allows for its calls to IdentityX, after which it stops waiting
+		 * @return the timeout in whole seconds, 0 to wait as long as the calls take
+		 */
+		@Attribute(order = 400)
+		default int requestTimeout() {
+			return 10;
+		}
 	}
 
 	private final Config config;
@@ -83,6 +90,11 @@ public class IdxMobileAuthRequestNode extends SingleOutcomeNode {
 
 	@Override
 	public Action process(TreeContext context) throws NodeProcessException {
+		return IdxCallExecutor.withDeadline(config.requestTimeout(),
+				() -> IdxMetrics.timedNode("IdxMobileAuthRequestNode", context, () -> sendAuthRequest(context)));
+	}
+
+	private Action sendAuthRequest(TreeContext context) throws NodeProcessException {
 		
 		Optional<TextOutputCallback> textOutputCallbackOptional = context.getCallback(TextOutputCallback.class);
 		Optional<TextInputCallback> textInputCallbackOptional = context.getCallback(TextInputCallback.class);
@@ -99,16 +111,11 @@ public class IdxMobileAuthRequestNode extends SingleOutcomeNode {
 				.build();
 		}
 		
-		String userId = context.sharedState.get(IdxCommon.IDX_USER_ID_KEY).asString();
-		
-		if (TextUtils.isBlank(userId)) {
-			throw new NodeProcessException("UserId cannot be blank");
-		}
-		
 		AuthenticationRequest finalRequest = null;
 		
 		if (TextUtils.isBlank(authHref)) {
-			finalRequest = createAuthRequest(context, userId);
+			finalRequest = createAuthRequest(context);
+			IdxTrace.setCorrelationId(sharedState, finalRequest.getHref());
 		} else {
 			finalRequest = getAuthRequest(context, authHref);
 		}
@@ -138,48 +145,47 @@ public class IdxMobileAuthRequestNode extends SingleOutcomeNode {
 				.build();
 	}
 	
-	private AuthenticationRequest createAuthRequest(TreeContext context, String userId) throws NodeProcessException {
+	private AuthenticationRequest createAuthRequest(TreeContext context) throws NodeProcessException {
 		
-		logger.info("Entering createAuthRequest");
+		User user = IdxAuthRequestBuilder.getUser(context.sharedState);
 		
-		User user = new User();
-		user.setUserId(userId);
-		
-		Application application = new Application();
-		application.setApplicationId(config.applicationId());
+		if (TextUtils.isBlank(user.getUserId())) {
+			throw new NodeProcessException("UserId cannot be blank");
+		}
 		
-		Policy policy = new Policy();
-		policy.setPolicyId(config.policyName());
-		policy.setApplication(application);
+		TenantRepoFactory tenantRepoFactory = IdxCommon.getTenantRepoFactory(context);
 		
-		AuthenticationRequest request = new AuthenticationRequest();
+		//Use the request IdxCheckEnrollmentStatus created in the background, if any
+		String slotId = context.sharedState.get(IdxCommon.IDX_PRECREATED_REQUEST_KEY).asString();
+		if (slotId != null) {
+			context.sharedState.remove(IdxCommon.IDX_PRECREATED_REQUEST_KEY);
+			AuthenticationRequest preCreated = IdxAuthRequestPool.claim(slotId, tenantRepoFactory, user, config.policyName(),
+					config.applicationId(), config.transactionDescription());
+			if (preCreated != null) {
+				logger.debug("Using pre-created authentication request {}", preCreated.getId());
+				return preCreated;
+			}
+		}
 		
-		request.setUser(user);
-		request.setApplication(application);
-		request.setPolicy(policy);
-		request.setDescription(config.transactionDescription());
-		request.setType(IdxCommon.IDX_AUTH_REQUEST_TYPE);
-		request.setServerData(context.sharedState.get(SharedStateConstants.USERNAME).asString());
+		AuthenticationRequest request = IdxAuthRequestBuilder.buildMobileRequest(user, config.policyName(),
+				config.applicationId(), config.transactionDescription(),
+				context.sharedState.get(SharedStateConstants.USERNAME).asString());
 		
 		logger.debug("UserId={} ApplicationId={} Policy={}", request.getUser().getUserId(), request.getApplication().getApplicationId(), request.getPolicy().getPolicyId());
 		
-		TenantRepoFactory tenantRepoFactory = IdxCommon.getTenantRepoFactory(context);
-		
+		AuthenticationRequest newRequest = request;
 		try {
-			request = tenantRepoFactory.getAuthenticationRequestRepo().create(request);
+			request = IdxCircuitBreaker.call(tenantRepoFactory, "createAuthRequest", () -> tenantRepoFactory.getAuthenticationRequestRepo().create(newRequest));
 		} catch (IdxRestException ex) {
 			logger.error("createAuthRequest exception", ex);
 			throw new NodeProcessException(ex);
 		}
 		
-		logger.info("Exiting createAuthRequest");
 		return request;
 	}
 	
 	private AuthenticationRequest getAuthRequest(TreeContext context, String authRequestHref) throws NodeProcessException {
 		
-		logger.info("Entering getAuthRequest");
-		
 		TenantRepoFactory tenantRepoFactory = IdxCommon.getTenantRepoFactory(context);
 		
 		logger.debug("AuthRequestHref={}", authRequestHref);
@@ -187,13 +193,12 @@ public class IdxMobileAuthRequestNode extends SingleOutcomeNode {
 		AuthenticationRequest request = null;
 		
 		try {
-			request = tenantRepoFactory.getAuthenticationRequestRepo().get(authRequestHref);
-		} catch (IdxRestException ex) {
+			request = IdxAuthRequestCoalescer.get(tenantRepoFactory, authRequestHref);
+		} catch (NodeProcessException ex) {
 			logger.error("getAuthRequest exception", ex);
-			throw new NodeProcessException(ex);
+			throw ex;
 		}
 		
-		logger.info("Exiting getAuthRequest");
 		return request;
 	}
 	
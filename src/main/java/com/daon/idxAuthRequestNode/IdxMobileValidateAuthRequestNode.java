@@ -2,6 +2,7 @@ package com.daon.idxAuthRequestNode;
 
 import static com.daon.idxAuthRequestNode.IdxCommon.getTenantRepoFactory;
 
+import java.io.IOException;
 import javax.inject.Inject;
 
 import org.apache.http.util.TextUtils;
@@ -13,13 +14,15 @@ import org.forgerock.openam.auth.node.api.Node;
 import org.forgerock.openam.auth.node.api.NodeProcessException;
 
 import org.forgerock.openam.auth.node.api.TreeContext;
-import org.json.JSONException;
-import org.json.JSONObject;
 import com.daon.identityx.rest.model.def.AuthenticationRequestStatusEnum;
 import com.daon.identityx.rest.model.pojo.AuthenticationRequest;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.google.inject.assistedinject.Assisted;
 import com.identityx.clientSDK.TenantRepoFactory;
 import com.identityx.clientSDK.exceptions.IdxRestException;
+import com.identityx.clientSDK.repositories.AuthenticationRequestRepository;
 import com.sun.identity.sm.RequiredValueValidator;
 
 /**
@@ -30,12 +33,32 @@ public class IdxMobileValidateAuthRequestNode extends AbstractDecisionNode {
 
 	private static LoggerWrapper logger = new LoggerWrapper();
 	
+	private static final JsonFactory jsonFactory = new JsonFactory();
+	
 	public interface Config {
 		
 		@Attribute(order = 100, validators = { RequiredValueValidator.class })
 		default AuthenticationRequestStatusEnum expectedStatus() {
 			return AuthenticationRequestStatusEnum.COMPLETED_SUCCESSFUL;
 		}	
+
+		/**
+		 * the time the node allows for its calls to IdentityX, after which it stops waiting
+		 * @return the timeout in whole seconds, 0 to wait as long as the calls take
+		 */
+		@Attribute(order = 200)
+		default int requestTimeout() {
+			return 10;
+		}
+
+		/**
+		 * whether to save the response with a single update instead of reading the request first
+		 * @return true to send the update directly, false to read the request and then update it
+		 */
+		@Attribute(order = 300)
+		default boolean directUpdate() {
+			return false;
+		}
 	}
 	
 	private final Config nodeConfig;	
@@ -50,36 +73,22 @@ public class IdxMobileValidateAuthRequestNode extends AbstractDecisionNode {
 
 	@Override
 	public Action process(TreeContext context) throws NodeProcessException {
-		
-		String test = null;
-		JSONObject obj = null;
-		boolean isJsonOk = false;
-
-		try {
-			obj = new JSONObject(context.sharedState.get(IdxCommon.IDX_AUTH_RESPONSE_KEY).asString());
-			logger.debug("Json={}", obj.toString());
-		} catch (JSONException e) {
-			logger.warn("Cannot cast SharedState Key = [{}] to JSON Object = {}", IdxCommon.IDX_AUTH_RESPONSE_KEY, e.getMessage());
-		}
-
-		if (obj != null) {
-			
-			try {
-				test = obj.getString(IdxCommon.IDX_AUTH_RESPONSE_PROPERTY_NAME);
-				isJsonOk = true;
-			} catch (JSONException e) {
-				logger.warn("Cannot cast JSON Object Property = [{}] to JSON Object = {}", IdxCommon.IDX_AUTH_RESPONSE_PROPERTY_NAME, e.getMessage());
-			}
-		}
+		return IdxCallExecutor.withDeadline(nodeConfig.requestTimeout(),
+				() -> IdxMetrics.timedNode("IdxMobileValidateAuthRequestNode", context, () -> validate(context)));
+	}
 
-		logger.debug("Test={}", test);
+	private Action validate(TreeContext context) throws NodeProcessException {
+		
+		String value = context.sharedState.get(IdxCommon.IDX_AUTH_RESPONSE_KEY).asString();
+		String authResponse = extractAuthResponse(value);
 
-		if (TextUtils.isEmpty(test) || !isJsonOk) {
-			test = context.sharedState.get(IdxCommon.IDX_AUTH_RESPONSE_KEY).asString();
-			logger.debug("Using-Postman={}", test);
+		if (TextUtils.isEmpty(authResponse)) {
+			//Not wrapped in a JSON object, e.g. when posted directly with Postman
+			authResponse = value;
+			logger.debug("Using the raw SharedState value as the authentication response");
 		}
 
-		if (validateAuthResponse(test, context)) {
+		if (validateAuthResponse(authResponse, context)) {
 			return goTo(true)
 					.replaceSharedState(context.sharedState)				
 					.build();
@@ -87,6 +96,32 @@ public class IdxMobileValidateAuthRequestNode extends AbstractDecisionNode {
 		return goTo(false).build();
 	}
 
+	/**
+	 * Returns the fidoAuthenticationResponse property of a JSON object, or null if the value is not a JSON
+	 * object with such a string property. Only the top level of the object is read; other values are
+	 * skipped without being built.
+	 */
+	static String extractAuthResponse(String value) {
+		if (value == null || !value.trim().startsWith("{")) {
+			return null;
+		}
+		try (JsonParser parser = jsonFactory.createParser(value)) {
+			parser.nextToken();
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.getCurrentName();
+				JsonToken token = parser.nextToken();
+				if (IdxCommon.IDX_AUTH_RESPONSE_PROPERTY_NAME.equals(name)) {
+					return token == JsonToken.VALUE_STRING ? parser.getText() : null;
+				}
+				parser.skipChildren();
+			}
+			logger.debug("No {} property in the authentication response", IdxCommon.IDX_AUTH_RESPONSE_PROPERTY_NAME);
+		} catch (IOException e) {
+			logger.warn("Cannot read SharedState Key = [{}] as JSON: {}", IdxCommon.IDX_AUTH_RESPONSE_KEY, e.getMessage());
+		}
+		return null;
+	}
+
 	private boolean validateAuthResponse(String authResponse, TreeContext context) throws NodeProcessException {
 
 		// Call API to check status. Return true, false or pending get the authHref value from sharedState
@@ -96,17 +131,12 @@ public class IdxMobileValidateAuthRequestNode extends AbstractDecisionNode {
 			
 			TenantRepoFactory tenantRepoFactory = getTenantRepoFactory(context);			
 			
-			AuthenticationRequest request = tenantRepoFactory.getAuthenticationRequestRepo().get(authHref);
+			AuthenticationRequest request = updateAuthRequest(tenantRepoFactory, authHref, authResponse);
 			
 			if (request == null) {
-				logger.error("AuthRequest Href = {} is invalid", authHref);
 				return false;
 			}
 			
-			request.setFidoAuthenticationResponse(authResponse);
-			
-			request = tenantRepoFactory.getAuthenticationRequestRepo().update(request);
-			
 			logger.debug("Checking Status=[{}]", nodeConfig.expectedStatus());
 			
 			if (request.getStatus() == nodeConfig.expectedStatus()) {
@@ -123,6 +153,53 @@ public class IdxMobileValidateAuthRequestNode extends AbstractDecisionNode {
 		} catch (IdxRestException ex) {
 			logger.error("validateAuthResponse exception", ex);
 			return false;
+		} catch (IdxUnavailableException ex) {
+			logger.warn("Unable to validate authentication response: {}", ex.getMessage());
+			return false;
 		}
 	}
+
+	/**
+	 * Saves the response on the authentication request, which is fetched and updated with it.
+	 * With directUpdate configured, a single PUT built from the href alone is sent instead, and
+	 * only if IdentityX reports a conflict (409 or 412) is the request fetched and the update retried once,
+	 * provided the request is still pending. Returns the updated request, or null if it can no longer be
+	 * updated.
+	 */
+	private AuthenticationRequest updateAuthRequest(TenantRepoFactory tenantRepoFactory, String authHref,
+			String authResponse) throws IdxRestException, IdxUnavailableException {
+		
+		AuthenticationRequestRepository authenticationRequestRepo = tenantRepoFactory.getAuthenticationRequestRepo();
+		
+		boolean retry = false;
+		if (nodeConfig.directUpdate()) {
+			AuthenticationRequest update = new AuthenticationRequest();
+			update.setHref(authHref);
+			update.setFidoAuthenticationResponse(authResponse);
+			
+			try {
+				return IdxCircuitBreaker.call(tenantRepoFactory, "updateAuthRequest", () -> authenticationRequestRepo.update(update));
+			} catch (IdxRestException ex) {
+				if (ex.getHttpStatus() != 409 && ex.getHttpStatus() != 412) {
+					throw ex;
+				}
+				logger.debug("Direct update of AuthRequest Href = {} conflicted, retrying with the current request: {}", authHref, ex.getMessage());
+				retry = true;
+			}
+		}
+		
+		AuthenticationRequest request = IdxCircuitBreaker.call(tenantRepoFactory, "getAuthRequest", () -> authenticationRequestRepo.get(authHref));
+		
+		if (request == null) {
+			logger.error("AuthRequest Href = {} is invalid", authHref);
+			return null;
+		}
+		if (retry && request.getStatus() != AuthenticationRequestStatusEnum.PENDING) {
+			logger.error("AuthRequest Href = {} can no longer be updated, Status = {}", authHref, request.getStatus());
+			return null;
+		}
+		
+		request.setFidoAuthenticationResponse(authResponse);
+		return IdxCircuitBreaker.call(tenantRepoFactory, "updateAuthRequest", () -> authenticationRequestRepo.update(request));
+	}
 }
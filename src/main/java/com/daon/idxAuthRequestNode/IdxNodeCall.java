@@ -0,0 +1,13 @@
+package com.daon.idxAuthRequestNode;
+
+import org.forgerock.openam.auth.node.api.Action;
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+
+/**
+ * The body of a node's process method.
+ */
+@FunctionalInterface
+interface IdxNodeCall {
+
+    Action process() throws NodeProcessException;
+}
@@ -0,0 +1,71 @@
+package com.daon.idxAuthRequestNode;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.openam.utils.qr.ErrorCorrectionLevel;
+import org.forgerock.openam.utils.qr.GenerationUtils;
+
+/**
+ * Server-side cache of the QR code JavaScript shown by IdxSponsorUser.
+ *
+ * Only the sponsorship URL is kept in sharedState; the script rendering it is generated once and reused
+ * for every poll until the sponsorship stops being polled. A poll that lands on another server, or after
+ * the entry was evicted, regenerates the script from the URL.
+ *
+ * The cache size is set with idx.qrCache.maxSize (default 1000).
+ */
+final class IdxQrCodeCache {
+
+    private static final long MAX_SIZE = Long.getLong("idx.qrCache.maxSize", 1000);
+    private static final long MAX_LIFETIME_MINUTES = 60;
+
+    private static final Cache<String, Entry> scripts = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SIZE)
+            .expireAfterWrite(MAX_LIFETIME_MINUTES, TimeUnit.MINUTES)
+            .build();
+
+    private IdxQrCodeCache() {
+    }
+
+    /**
+     * Returns the script which renders the given sponsorship URL as a QR code.
+     * @param qrText the sponsorship URL
+     * @param expiresAt time in milliseconds after which the script is no longer needed
+     */
+    static String getScript(String qrText, long expiresAt) {
+        long now = System.currentTimeMillis();
+        Entry entry = scripts.getIfPresent(qrText);
+        if (entry != null && entry.expiresAt > now) {
+            return entry.script;
+        }
+
+        String script = GenerationUtils.getQRCodeGenerationJavascript("callback_0", qrText, 20,
+                ErrorCorrectionLevel.LOW);
+        if (expiresAt > now) {
+            scripts.put(qrText, new Entry(script, expiresAt));
+        }
+        return script;
+    }
+
+    /**
+     * Drops the script for a sponsorship URL which will not be shown again.
+     */
+    static void invalidate(String qrText) {
+        if (qrText != null) {
+            scripts.invalidate(qrText);
+        }
+    }
+
+    private static final class Entry {
+        private final String script;
+        private final long expiresAt;
+
+        Entry(String script, long expiresAt) {
+            this.script = script;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
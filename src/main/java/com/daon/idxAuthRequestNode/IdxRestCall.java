@@ -0,0 +1,12 @@
+package com.daon.idxAuthRequestNode;
+
+import com.identityx.clientSDK.exceptions.IdxRestException;
+
+/**
+ * A single call to the IdentityX REST API, made through one of the SDK repositories.
+ */
+@FunctionalInterface
+interface IdxRestCall<T> {
+
+    T call() throws IdxRestException;
+}
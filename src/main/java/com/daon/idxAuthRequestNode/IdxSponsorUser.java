@@ -12,22 +12,15 @@ import org.forgerock.openam.auth.node.api.Node;
 import org.forgerock.openam.auth.node.api.NodeProcessException;
 import org.forgerock.openam.auth.node.api.TreeContext;
 import org.forgerock.openam.authentication.callbacks.PollingWaitCallback;
-import org.forgerock.openam.utils.qr.ErrorCorrectionLevel;
-import org.forgerock.openam.utils.qr.GenerationUtils;
 import org.forgerock.util.i18n.PreferredLocales;
 import com.daon.identityx.rest.model.def.PolicyStatusEnum;
+import com.daon.identityx.rest.model.pojo.Policy;
 import com.daon.identityx.rest.model.pojo.Policy.PolicyTypeEnum;
 import com.daon.identityx.rest.model.pojo.Sponsorship;
 import com.google.common.collect.ImmutableList;
 import com.google.inject.assistedinject.Assisted;
 import com.identityx.clientSDK.TenantRepoFactory;
-import com.identityx.clientSDK.collections.ApplicationCollection;
-import com.identityx.clientSDK.collections.PolicyCollection;
 import com.identityx.clientSDK.exceptions.IdxRestException;
-import com.identityx.clientSDK.queryHolders.ApplicationQueryHolder;
-import com.identityx.clientSDK.queryHolders.PolicyQueryHolder;
-import com.identityx.clientSDK.repositories.ApplicationRepository;
-import com.identityx.clientSDK.repositories.PolicyRepository;
 import com.identityx.clientSDK.repositories.SponsorshipRepository;
 import com.sun.identity.authentication.callbacks.ScriptTextOutputCallback;
 import com.sun.identity.sm.RequiredValueValidator;
@@ -90,13 +83,35 @@ public class IdxSponsorUser implements Node {
             return "Scan the QR code with your mobile app.";
         }
 
+        /**
+         * Poll quickly just after the QR code is shown and back off while the sponsorship stays pending,
+         * within the same overall time as pollingWaitInterval * numberOfTimesToPoll
+         * @return true to use the adaptive schedule, false to poll every pollingWaitInterval
+         */
+        @Attribute(order = 600)
+        default boolean adaptivePolling() {
+            return false;
+        }
+
+        /**
+         * the time the node allows for its calls to IdentityX, after which it stops waiting
+         * @return the timeout in whole seconds, 0 to wait as long as the calls take
+         */
+        @Attribute(order = 700)
+        default int requestTimeout() {
+            return 10;
+        }
+
     }
 
     private final Config config;
     private static LoggerWrapper logger = new LoggerWrapper();
-    private final String IDX_QR_KEY = "idx-qr-key";
+    private final String IDX_QR_TEXT_KEY = "idx-qr-text";
     private final String IDX_POLL_TIMES = "idx-poll-times-remaining";
     private final String IDX_SPONSORSHIP_HREF = "idx-sponsorship-href";
+    private final String IDX_POLL_DEADLINE = "idx-poll-deadline";
+    private final String IDX_POLL_WAIT = "idx-poll-wait";
+    private static final long INITIAL_POLL_WAIT_MILLIS = 2000;
     private static final String BUNDLE = IdxSponsorUser.class.getName();
 
 
@@ -113,6 +128,21 @@ public class IdxSponsorUser implements Node {
 
     @Override
     public Action process(TreeContext context) throws NodeProcessException {
+        return IdxCallExecutor.withDeadline(config.requestTimeout(),
+                () -> IdxMetrics.timedNode("IdxSponsorUser", context, () -> sponsorUserOrFail(context)));
+    }
+
+    private Action sponsorUserOrFail(TreeContext context) throws NodeProcessException {
+        try {
+            return sponsorUser(context);
+        } catch (IdxUnavailableException e) {
+            logger.warn("Unable to sponsor user: {}", e.getMessage());
+            clearPollingState(context.sharedState);
+            return goTo(IdxSponsorOutcome.FALSE.name()).replaceSharedState(context.sharedState).build();
+        }
+    }
+
+    private Action sponsorUser(TreeContext context) throws NodeProcessException {
         JsonValue sharedState = context.sharedState;
         String qrText;
 
@@ -124,9 +154,7 @@ public class IdxSponsorUser implements Node {
             if (index == 0) {
                 //user clicked cancel button
                 logger.debug("User clicked cancel");
-                sharedState.remove(IDX_POLL_TIMES);
-                sharedState.remove(IDX_SPONSORSHIP_HREF);
-                sharedState.remove(IDX_QR_KEY);
+                clearPollingState(sharedState);
                 return goTo(IdxSponsorOutcome.CANCEL.name()).replaceSharedState(sharedState).build();
             } else if (index == 1) {
                 logger.debug("User clicked Email QR button");
@@ -146,48 +174,58 @@ public class IdxSponsorUser implements Node {
             throw new NodeProcessException(errorMessage);
         }
 
-        if (!sharedState.isDefined(IDX_QR_KEY)) {
+        if (!sharedState.isDefined(IDX_QR_TEXT_KEY)) {
 
            logger.debug("Entering into Sponsor User for the first time for user: [{}]", username);
 
 
-            sharedState.put(IDX_POLL_TIMES, config.numberOfTimesToPoll());
+            if (config.adaptivePolling()) {
+                long budgetMillis = config.pollingWaitInterval() * 1000L * config.numberOfTimesToPoll();
+                sharedState.put(IDX_POLL_DEADLINE, System.currentTimeMillis() + budgetMillis);
+                sharedState.put(IDX_POLL_WAIT, Math.min(INITIAL_POLL_WAIT_MILLIS, config.pollingWaitInterval() * 1000L));
+            } else {
+                sharedState.put(IDX_POLL_TIMES, config.numberOfTimesToPoll());
+            }
 
             qrText = getQRText(tenantRepoFactory, username);
 
             sharedState.put(IDX_SPONSORSHIP_HREF, sponsorshipHref);
+            IdxTrace.setCorrelationId(sharedState, sponsorshipHref);
 
-            String qrCallback = GenerationUtils.getQRCodeGenerationJavascript("callback_0", qrText,
-                    20, ErrorCorrectionLevel.LOW);
-
-            sharedState.put(IDX_QR_KEY, qrCallback);
+            //Only the URL goes in sharedState, the QR code script is kept server-side
+            sharedState.put(IDX_QR_TEXT_KEY, qrText);
 
             return buildResponse(sharedState);
 
         }
-        if (isEnrolled(sharedState, tenantRepoFactory)) {
-            logger.debug("Enrollment Successful for: [{}]", username);
-            // If enrollment is successful send user to next node
-            return goTo(IdxSponsorOutcome.TRUE.name()).build();
+        switch (getSponsorshipStatus(sharedState, tenantRepoFactory)) {
+            case "COMPLETED":
+                logger.debug("Enrollment Successful for: [{}]", username);
+                IdxUserCache.invalidate(tenantRepoFactory, username);
+                // If enrollment is successful send user to next node
+                return goTo(IdxSponsorOutcome.TRUE.name()).build();
+            case "EXPIRED":
+                // No point polling any longer, the QR code can no longer be used
+                logger.debug("Sponsorship expired for: [{}]", username);
+                clearPollingState(sharedState);
+                return goTo(IdxSponsorOutcome.FALSE.name()).replaceSharedState(sharedState).build();
+            default:
+                // Build the callbacks and schedule the next poll
+                return buildResponse(sharedState);
         }
 
-        // Build the callbacks and decrement from our configured number of poll times
-        return buildResponse(sharedState);
-
     }
 
     private Action buildResponse(JsonValue sharedState) {
-        Integer pollTimesRemaining = sharedState.get(IDX_POLL_TIMES).asInteger();
-        if (pollTimesRemaining == 0) {
-            // If number of times remaining to poll is 0, send user to false
-            sharedState.remove(IDX_POLL_TIMES);
-            sharedState.remove(IDX_SPONSORSHIP_HREF);
-            sharedState.remove(IDX_QR_KEY);
+        long pollWaitMillis = nextPollWait(sharedState);
+        if (pollWaitMillis <= 0) {
+            // If there is no time left to poll, send user to false
+            clearPollingState(sharedState);
             return goTo(IdxSponsorOutcome.FALSE.name()).replaceSharedState(sharedState).build();
         }
-        sharedState.put(IDX_POLL_TIMES, pollTimesRemaining - 1);
 
-        ScriptTextOutputCallback qrCodeCallback = new ScriptTextOutputCallback(sharedState.get(IDX_QR_KEY).asString());
+        ScriptTextOutputCallback qrCodeCallback = new ScriptTextOutputCallback(
+                IdxQrCodeCache.getScript(sharedState.get(IDX_QR_TEXT_KEY).asString(), getQrCodeExpiry(sharedState)));
 
         TextOutputCallback textOutputCallback = new TextOutputCallback(TextOutputCallback.INFORMATION,
                 config.messageText());
@@ -199,11 +237,55 @@ public class IdxSponsorUser implements Node {
         confirmationCallback.setSelectedIndex(2);
 
         return send(Arrays.asList(textOutputCallback, qrCodeCallback,
-                                  new PollingWaitCallback(Integer.toString(config.pollingWaitInterval() * 1000),
+                                  new PollingWaitCallback(Long.toString(pollWaitMillis),
                            "Waiting for Enrollment to Complete..."), confirmationCallback))
                                 .replaceSharedState(sharedState).build();
     }
 
+    /**
+     * Works out how long to wait before the next poll and records the polling progress in sharedState.
+     * @return the wait in milliseconds, or 0 if polling should stop
+     */
+    private long nextPollWait(JsonValue sharedState) {
+        if (!sharedState.isDefined(IDX_POLL_DEADLINE)) {
+            Integer pollTimesRemaining = sharedState.get(IDX_POLL_TIMES).asInteger();
+            if (pollTimesRemaining == 0) {
+                return 0;
+            }
+            sharedState.put(IDX_POLL_TIMES, pollTimesRemaining - 1);
+            return config.pollingWaitInterval() * 1000L;
+        }
+
+        long remaining = sharedState.get(IDX_POLL_DEADLINE).asLong() - System.currentTimeMillis();
+        if (remaining <= 0) {
+            return 0;
+        }
+        long wait = Math.min(sharedState.get(IDX_POLL_WAIT).asLong(), remaining);
+        long maxWait = Math.max(config.pollingWaitInterval() * 3000L, INITIAL_POLL_WAIT_MILLIS);
+        sharedState.put(IDX_POLL_WAIT, Math.min(wait * 2, maxWait));
+        return wait;
+    }
+
+    /**
+     * The QR code is needed until polling stops, so its cache entry expires with the polling budget.
+     */
+    private long getQrCodeExpiry(JsonValue sharedState) {
+        if (sharedState.isDefined(IDX_POLL_DEADLINE)) {
+            return sharedState.get(IDX_POLL_DEADLINE).asLong();
+        }
+        return System.currentTimeMillis()
+                + (sharedState.get(IDX_POLL_TIMES).asInteger() + 1) * config.pollingWaitInterval() * 1000L;
+    }
+
+    private void clearPollingState(JsonValue sharedState) {
+        IdxQrCodeCache.invalidate(sharedState.get(IDX_QR_TEXT_KEY).asString());
+        sharedState.remove(IDX_POLL_TIMES);
+        sharedState.remove(IDX_POLL_DEADLINE);
+        sharedState.remove(IDX_POLL_WAIT);
+        sharedState.remove(IDX_SPONSORSHIP_HREF);
+        sharedState.remove(IDX_QR_TEXT_KEY);
+    }
+
     private String getQRText(TenantRepoFactory tenantRepoFactory, String userId)
         throws NodeProcessException {
 
@@ -222,61 +304,30 @@ public class IdxSponsorUser implements Node {
         request.setType(Sponsorship.SponsorshipTypeEnum.USER);
         request.setRegistrationId(UUID.randomUUID().toString());
 
-        PolicyQueryHolder holder = new PolicyQueryHolder();
-        holder.getSearchSpec().setPolicyId(policyId);
-        holder.getSearchSpec().setStatus(PolicyStatusEnum.ACTIVE);
-        PolicyRepository policyRepo = tenantRepoFactory.getPolicyRepo();
-        PolicyCollection policyCollection;
-        try {
-            policyCollection = policyRepo.list(holder);
-        } catch (IdxRestException e) {
-            throw new NodeProcessException(e);
-        }
-        if(policyCollection.getItems().length > 0) {
-            logger.debug("Setting Policy On Sponsorship Request");
-            request.setPolicy(policyCollection.getItems()[0]);
-
-            policyType = policyCollection.getItems()[0].getType();
-        }
-        else {
-            logger.error("Could not find an active policy with the PolicyId: " + config.enrollmentPolicyName());
-            throw new NodeProcessException("Could not find an active policy with the PolicyId: " + config.enrollmentPolicyName());
-        }
+        IdxLookupCache.PolicyAndApplication lookup = IdxLookupCache.getPolicyAndApplication(tenantRepoFactory,
+                policyId, PolicyStatusEnum.ACTIVE, appId);
+        Policy policy = lookup.getPolicy();
+        logger.debug("Setting Policy On Sponsorship Request");
+        request.setPolicy(policy);
+        policyType = policy.getType();
 
-
-
-        ApplicationRepository applicationRepo = tenantRepoFactory.getApplicationRepo();
-        ApplicationQueryHolder applicationQueryHolder = new ApplicationQueryHolder();
-        applicationQueryHolder.getSearchSpec().setApplicationId(appId);
-        ApplicationCollection applicationCollection;
-        try {
-            applicationCollection = applicationRepo.list(applicationQueryHolder);
-        } catch (IdxRestException e) {
-            throw new NodeProcessException(e);
-        }
-
-        if (applicationCollection.getItems().length > 0) {
-            request.setApplication(applicationCollection.getItems()[0]);
-        }
-        else {
-            logger.debug("No Application was found with this name " + appId);
-            throw new NodeProcessException("No Application was found with this name " + appId);
-        }
+        request.setApplication(lookup.getApplication());
 
         SponsorshipRepository sponsorshipRepo = tenantRepoFactory.getSponsorshipRepo();
+        Sponsorship newSponsorship = request;
         try {
-            request = sponsorshipRepo.create(request);
+            request = IdxCircuitBreaker.call(tenantRepoFactory, "createSponsorship", () -> sponsorshipRepo.create(newSponsorship));
         }
         catch (IdxRestException e) {
-            logger.debug("Error creating sponsorship for user: " + userId);
+            logger.debug("Error creating sponsorship for user: {}", userId);
             throw new NodeProcessException(e);
         }
 
         //store the sponsorshipHref so we can query the status
         sponsorshipHref = request.getHref();
 
-        logger.debug("Sponsorship created for userId " + userId);
-        logger.debug("Sponsorship Code: " + request.getSponsorshipToken());
+        logger.debug("Sponsorship created for userId {}", userId);
+        logger.debug("Sponsorship Code: {}", request.getSponsorshipToken());
 
         //AM will build the QR code. Just need to provide the URL string
         String sponsorshipCodeUrl = "identityx://sponsor?SC=" + request.getSponsorshipToken();
@@ -290,39 +341,36 @@ public class IdxSponsorUser implements Node {
         return sponsorshipCodeUrl;
     }
 
-    private boolean isEnrolled(JsonValue sharedState, TenantRepoFactory tenantRepoFactory) throws NodeProcessException {
+    private String getSponsorshipStatus(JsonValue sharedState, TenantRepoFactory tenantRepoFactory) throws NodeProcessException {
 
         logger.debug("Checking Sponsorship Status for: [{}]", sharedState.get("IdxKeyUserName").asString());
 
         String href = sharedState.get(IDX_SPONSORSHIP_HREF).toString().replaceAll("\"", "");
-        logger.debug("Href: " + href);
+        logger.debug("Href: {}", href);
 
         SponsorshipRepository sponsorshipRepo = tenantRepoFactory.getSponsorshipRepo();
 
         Sponsorship request;
         try {
-            request = sponsorshipRepo.get(href);
+            request = IdxCircuitBreaker.call(tenantRepoFactory, "getSponsorship", () -> sponsorshipRepo.get(href));
         } catch (IdxRestException e) {
             logger.debug("An exception occurred while attempting to determine the status of the sponsorship " +
-                    "request.  Exception: " + e.getMessage());
+                    "request.  Exception: {}", e.getMessage());
             throw new NodeProcessException(e);
         }
 
         //COMPLETED EXPIRED or PENDING
-        switch (request.getStatus().toString()) {
+        String status = request.getStatus().toString();
+        switch (status) {
             case "PENDING":
-                logger.debug("Sponsorship status PENDING");
-                return false;
             case "COMPLETED":
-                logger.debug("Sponsorship status COMPLETED");
-                return true;
             case "EXPIRED":
-                logger.debug("Sponsorship status EXPIRED");
-                return false;
+                logger.debug("Sponsorship status {}", status);
+                break;
             default:
                 logger.debug("Sponsorship status not recognized");
-                return false;
         }
+        return status;
 
     }
 
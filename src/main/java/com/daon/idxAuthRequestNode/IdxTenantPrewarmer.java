@@ -0,0 +1,122 @@
+package com.daon.idxAuthRequestNode;
+
+import com.daon.identityx.rest.model.def.PolicyStatusEnum;
+import com.identityx.clientSDK.TenantRepoFactory;
+import com.iplanet.sso.SSOException;
+import com.sun.identity.sm.SMSException;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.forgerock.guice.core.InjectorHolder;
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+import org.forgerock.openam.core.realms.Realm;
+import org.forgerock.openam.core.realms.RealmLookupException;
+import org.forgerock.openam.core.realms.Realms;
+import org.forgerock.openam.sm.AnnotatedServiceRegistry;
+import org.forgerock.openam.utils.StringUtils;
+
+/**
+ * Initialises IdentityX tenants and their policy and application lookups when the plugin starts, so the
+ * first authentications after a restart do not pay for reading the keystore, building the
+ * TenantRepoFactory and opening the first connection to IdentityX.
+ *
+ * Pre-warming is enabled by listing realms in the idx.prewarm.realms system property, for example
+ * {@code /,/customers}. The tenants are those configured in the IdxCheckEnrollmentStatus nodes of those
+ * realms, and the policies and applications those of the realms' IdxAuthRequestNode,
+ * IdxMobileAuthRequestNode and IdxSponsorUser nodes, read from AM's own configuration so no credentials
+ * are kept anywhere else. The work runs on a background thread and failures are only logged.
+ */
+final class IdxTenantPrewarmer {
+
+    private static LoggerWrapper logger = new LoggerWrapper();
+
+    static final String PREWARM_REALMS_PROPERTY = "idx.prewarm.realms";
+
+    private IdxTenantPrewarmer() {
+    }
+
+    /**
+     * Starts pre-warming in the background if any realms are configured.
+     */
+    static void start() {
+        String realms = System.getProperty(PREWARM_REALMS_PROPERTY);
+        if (StringUtils.isBlank(realms)) {
+            return;
+        }
+        Thread thread = new Thread(() -> prewarm(realms), "idx-prewarm");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void prewarm(String realms) {
+        AnnotatedServiceRegistry serviceRegistry = InjectorHolder.getInstance(AnnotatedServiceRegistry.class);
+        for (String realm : realms.trim().split("\\s*,\\s*")) {
+            long start = System.currentTimeMillis();
+            try {
+                prewarmRealm(serviceRegistry, Realms.of(realm));
+                logger.debug("Pre-warmed realm [{}] in {} ms", realm, System.currentTimeMillis() - start);
+            } catch (RealmLookupException | SSOException | SMSException | RuntimeException ex) {
+                logger.warn("Pre-warming realm [{}] failed: {}", realm, ex.getMessage());
+            }
+        }
+    }
+
+    private static void prewarmRealm(AnnotatedServiceRegistry serviceRegistry, Realm realm)
+            throws SSOException, SMSException {
+
+        Set<String> policies = new LinkedHashSet<>();
+        Set<String> applications = new LinkedHashSet<>();
+        for (IdxAuthRequestNode.Config config : serviceRegistry.getRealmInstances(IdxAuthRequestNode.Config.class, realm)) {
+            policies.add(config.policyName());
+            applications.add(config.applicationId());
+        }
+        for (IdxMobileAuthRequestNode.Config config
+                : serviceRegistry.getRealmInstances(IdxMobileAuthRequestNode.Config.class, realm)) {
+            policies.add(config.policyName());
+            applications.add(config.applicationId());
+        }
+        for (IdxSponsorUser.Config config : serviceRegistry.getRealmInstances(IdxSponsorUser.Config.class, realm)) {
+            policies.add(config.enrollmentPolicyName());
+            applications.add(config.applicationId());
+        }
+
+        for (IdxCheckEnrollmentStatus.Config config
+                : serviceRegistry.getRealmInstances(IdxCheckEnrollmentStatus.Config.class, realm)) {
+            try {
+                prewarmTenant(config, policies, applications);
+            } catch (NodeProcessException | RuntimeException ex) {
+                logger.warn("Pre-warming tenant [{}] failed: {}", config.pathToCredentialProperties(), ex.getMessage());
+            }
+        }
+    }
+
+    private static void prewarmTenant(IdxCheckEnrollmentStatus.Config config, Set<String> policies,
+            Set<String> applications) throws NodeProcessException {
+
+        TenantRepoFactory tenantRepoFactory = IdxTenantRepoFactoryRegistry.getTenantRepoFactory(
+                config.pathToKeyStore(), String.valueOf(config.jksPassword()), config.pathToCredentialProperties(),
+                config.keyAlias(), String.valueOf(config.keyPassword()));
+
+        //The first lookup also opens the connection to IdentityX. With several tenants in a realm a
+        //policy or application may belong to another one, so failed lookups are expected
+        for (String policyId : policies) {
+            if (StringUtils.isNotBlank(policyId)) {
+                try {
+                    IdxLookupCache.getPolicy(tenantRepoFactory, policyId, PolicyStatusEnum.ACTIVE);
+                } catch (NodeProcessException | RuntimeException ex) {
+                    logger.debug("Policy [{}] not pre-warmed: {}", policyId, ex.getMessage());
+                }
+            }
+        }
+        for (String applicationId : applications) {
+            if (StringUtils.isNotBlank(applicationId)) {
+                try {
+                    IdxLookupCache.getApplication(tenantRepoFactory, applicationId);
+                } catch (NodeProcessException | RuntimeException ex) {
+                    logger.debug("Application [{}] not pre-warmed: {}", applicationId, ex.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.daon.idxAuthRequestNode;
+
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.identityx.clientSDK.TenantRepoFactory;
+import com.identityx.clientSDK.credentialsProviders.EncryptedKeyPropFileCredentialsProvider;
+import com.identityx.clientSDK.def.ICredentialsProvider;
+import com.identityx.clientSDK.exceptions.ClientInitializationException;
+import com.identityx.clientSDK.exceptions.IdxRestException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the TenantRepoFactory instances used by the nodes, one per IdentityX tenant.
+ *
+ * Tenants are identified by a fingerprint of the keystore path, credential properties path and key alias,
+ * so trees configured for different tenants no longer share a factory. The fingerprint also serves as the
+ * tenant handle which IdxCheckEnrollmentStatus places in sharedState for the downstream nodes. A node
+ * running on a server where the tenant is not initialised yet initialises it from the configuration of
+ * that IdxCheckEnrollmentStatus node, see IdxCommon.getTenantRepoFactory.
+ *
+ * Lookups of an initialised tenant are a single map read; the first request for a tenant builds its
+ * factory exactly once, even when several requests arrive together.
+ *
+ * When the keystore or credential properties file on the file system changes, the factory is rebuilt
+ * on the next lookup. Files are checked at most every idx.tenant.reloadCheckSeconds (default 60, 0
+ * disables reloading).
+ *
+ * Tests and benchmarks in this package can add a tenant with a factory they built themselves, see
+ * {@link #registerForTesting}.
+ */
+final class IdxTenantRepoFactoryRegistry {
+
+    private static LoggerWrapper logger = new LoggerWrapper();
+
+    private static final long RELOAD_CHECK_MILLIS = Long.getLong("idx.tenant.reloadCheckSeconds", 60) * 1000;
+
+    private static final ConcurrentMap<String, Tenant> tenants = new ConcurrentHashMap<>();
+
+    private IdxTenantRepoFactoryRegistry() {
+    }
+
+    /**
+     * Returns the TenantRepoFactory for the tenant described by the given configuration, building it
+     * if this is the first request for the tenant or its files have changed.
+     */
+    static TenantRepoFactory getTenantRepoFactory(String keyStorePath, String jksPassword,
+            String credentialPropertiesPath, String keyAlias, String keyPass) throws NodeProcessException {
+
+        String handle = fingerprint(keyStorePath, credentialPropertiesPath, keyAlias);
+
+        Tenant tenant = tenants.get(handle);
+        if (tenant == null || tenant.isStale()) {
+            tenant = load(handle, keyStorePath, jksPassword, credentialPropertiesPath, keyAlias, keyPass);
+        }
+        return tenant.tenantRepoFactory;
+    }
+
+    /**
+     * Returns the TenantRepoFactory of a tenant already initialised on this server, or null if the
+     * handle is unknown here. Handles are the values returned by {@link #fingerprint}.
+     */
+    static TenantRepoFactory getTenantRepoFactory(String handle) throws NodeProcessException {
+        Tenant tenant = tenants.get(handle);
+        if (tenant == null) {
+            return null;
+        }
+        if (tenant.isStale()) {
+            tenant = load(handle, tenant.keyStorePath, tenant.jksPassword, tenant.credentialPropertiesPath,
+                    tenant.keyAlias, tenant.keyPass);
+        }
+        return tenant.tenantRepoFactory;
+    }
+
+    /**
+     * Adds a tenant with a factory built by the caller rather than from the keystore files, for tests and
+     * benchmarks which drive the nodes against a fake IdentityX. Such a tenant is never reloaded.
+     * @throws IllegalStateException if a tenant with the handle is already initialised, which is never
+     * replaced
+     */
+    @VisibleForTesting
+    static void registerForTesting(String handle, TenantRepoFactory tenantRepoFactory) {
+        if (tenants.putIfAbsent(handle, new Tenant(tenantRepoFactory)) != null) {
+            throw new IllegalStateException("IdentityX tenant " + handle + " is already initialised");
+        }
+    }
+
+    private static Tenant load(String handle, String keyStorePath, String jksPassword,
+            String credentialPropertiesPath, String keyAlias, String keyPass) throws NodeProcessException {
+        try {
+            return tenants.compute(handle, (key, existing) -> {
+                if (existing != null && !existing.isStale()) {
+                    return existing;
+                }
+                try {
+                    return new Tenant(keyStorePath, jksPassword, credentialPropertiesPath, keyAlias, keyPass);
+                } catch (NodeProcessException ex) {
+                    if (existing != null) {
+                        logger.error("Reloading TenantRepoFactory failed, keeping the current instance", ex);
+                        existing.markChecked();
+                        return existing;
+                    }
+                    throw new TenantInitializationException(ex);
+                }
+            });
+        } catch (TenantInitializationException ex) {
+            throw (NodeProcessException) ex.getCause();
+        }
+    }
+
+    static String fingerprint(String keyStorePath, String credentialPropertiesPath, String keyAlias) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(keyStorePath.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(credentialPropertiesPath.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(keyAlias.getBytes(StandardCharsets.UTF_8));
+            byte[] hash = digest.digest();
+            StringBuilder fingerprint = new StringBuilder(32);
+            for (int i = 0; i < 16; i++) {
+                fingerprint.append(String.format("%02x", hash[i]));
+            }
+            return fingerprint.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static InputStream getFileStream(String filePath) {
+
+        logger.debug("Attempt to get from ClassPath [{}]", filePath);
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+
+        InputStream stream = classLoader.getResourceAsStream(filePath);
+
+        if (stream == null) {
+            logger.warn("File does not exist on ClassPath");
+            logger.debug("Attempt to get from File System [{}]", filePath);
+
+            File file = new File(filePath);
+
+            if (file.exists() && file.isFile()) {
+                try {
+                    stream = new FileInputStream(file);
+                    logger.debug("Stream Created from File located on File System ");
+                } catch (FileNotFoundException ex) {
+                    logger.warn("{}", ex.getMessage());
+                }
+            } else {
+                logger.warn("File does not exist on File System");
+            }
+        } else {
+            logger.debug("Stream Created from File on ClassPath");
+        }
+
+        return stream;
+    }
+
+    private static void close(InputStream stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException ex) {
+                logger.warn("{}", ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * An initialised tenant along with the configuration and file timestamps it was built from. A tenant
+     * registered for testing has neither.
+     */
+    private static final class Tenant {
+
+        private final TenantRepoFactory tenantRepoFactory;
+        private final String keyStorePath;
+        private final String jksPassword;
+        private final String credentialPropertiesPath;
+        private final String keyAlias;
+        private final String keyPass;
+        private final File keyStoreFile;
+        private final File credentialPropertiesFile;
+        private final long keyStoreModified;
+        private final long credentialPropertiesModified;
+        private volatile long lastChecked;
+
+        Tenant(String keyStorePath, String jksPassword, String credentialPropertiesPath, String keyAlias,
+                String keyPass) throws NodeProcessException {
+
+            logger.debug("Creating TenantRepoFactory JKS={} Credential Properties={}", keyStorePath,
+                    credentialPropertiesPath);
+
+            this.keyStorePath = keyStorePath;
+            this.jksPassword = jksPassword;
+            this.credentialPropertiesPath = credentialPropertiesPath;
+            this.keyAlias = keyAlias;
+            this.keyPass = keyPass;
+            keyStoreFile = new File(keyStorePath);
+            credentialPropertiesFile = new File(credentialPropertiesPath);
+            keyStoreModified = keyStoreFile.lastModified();
+            credentialPropertiesModified = credentialPropertiesFile.lastModified();
+            lastChecked = System.currentTimeMillis();
+
+            InputStream keyStoreStream = getFileStream(keyStorePath);
+            InputStream credentialStream = getFileStream(credentialPropertiesPath);
+
+            try {
+                if (keyStoreStream == null) {
+                    throw new NodeProcessException(String.format("FATAL: cannot read Java-KeyStore file =[%s]", keyStorePath));
+                }
+
+                if (credentialStream == null) {
+                    throw new NodeProcessException(String.format("FATAL: cannot read Credential Properties file =[%s]", credentialPropertiesPath));
+                }
+
+                ICredentialsProvider credentialProvider = new EncryptedKeyPropFileCredentialsProvider(keyStoreStream,
+                        jksPassword, credentialStream, keyAlias, keyPass);
+                tenantRepoFactory = new TenantRepoFactory(credentialProvider);
+            } catch (IdxRestException | ClientInitializationException ex) {
+                logger.error("TenantRepoFactory Exception", ex);
+                throw new NodeProcessException("FATAL: ", ex);
+            } finally {
+                close(keyStoreStream);
+                close(credentialStream);
+            }
+        }
+
+        Tenant(TenantRepoFactory tenantRepoFactory) {
+            this.tenantRepoFactory = tenantRepoFactory;
+            keyStorePath = null;
+            jksPassword = null;
+            credentialPropertiesPath = null;
+            keyAlias = null;
+            keyPass = null;
+            keyStoreFile = null;
+            credentialPropertiesFile = null;
+            keyStoreModified = 0;
+            credentialPropertiesModified = 0;
+        }
+
+        boolean isStale() {
+            if (RELOAD_CHECK_MILLIS <= 0 || keyStoreFile == null) {
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            if (now - lastChecked < RELOAD_CHECK_MILLIS) {
+                return false;
+            }
+            if (keyStoreFile.lastModified() != keyStoreModified
+                    || credentialPropertiesFile.lastModified() != credentialPropertiesModified) {
+                logger.debug("KeyStore or Credential Properties file changed, reloading TenantRepoFactory");
+                return true;
+            }
+            lastChecked = now;
+            return false;
+        }
+
+        void markChecked() {
+            lastChecked = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Carries a NodeProcessException out of the map's compute function.
+     */
+    private static final class TenantInitializationException extends RuntimeException {
+        TenantInitializationException(NodeProcessException cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.daon.idxAuthRequestNode;
+
+/**
+ * Thrown when an IdentityX call does not complete before the calling node's deadline.
+ */
+class IdxTimeoutException extends IdxUnavailableException {
+
+    IdxTimeoutException(String message) {
+        super(message);
+    }
+}
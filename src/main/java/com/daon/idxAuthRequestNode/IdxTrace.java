@@ -0,0 +1,115 @@
+package com.daon.idxAuthRequestNode;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.forgerock.json.JsonValue;
+
+/**
+ * Sampled, structured trace events for the nodes.
+ *
+ * Each node invocation produces at most one compact event with the node, outcome, duration and the
+ * correlation id of the authentication. The correlation id is the id of the IdentityX authentication
+ * request or sponsorship, stored in sharedState when it is created, so all the events of one
+ * authentication share it and are sampled together. Events are handed to a bounded buffer drained by a
+ * background thread; when the buffer is full the event is dropped rather than blocking the node.
+ *
+ * Tuned with idx.trace.sampleRate (fraction of authentications traced, default 0.01, 0 disables) and
+ * idx.trace.bufferSize (default 1024).
+ */
+final class IdxTrace {
+
+    private static LoggerWrapper logger = new LoggerWrapper();
+
+    static final String IDX_CORRELATION_ID_KEY = "idx-correlation-id-shared-state-key";
+
+    private static final double SAMPLE_RATE = Double.parseDouble(System.getProperty("idx.trace.sampleRate", "0.01"));
+    private static final int BUFFER_SIZE = Integer.getInteger("idx.trace.bufferSize", 1024);
+    private static final int SAMPLE_SCALE = 10000;
+    private static final int SAMPLE_THRESHOLD = (int) Math.round(Math.min(Math.max(SAMPLE_RATE, 0), 1) * SAMPLE_SCALE);
+
+    private static final BlockingQueue<String> events = new ArrayBlockingQueue<>(Math.max(BUFFER_SIZE, 1));
+    private static final LongAdder dropped = new LongAdder();
+
+    static {
+        if (SAMPLE_THRESHOLD > 0) {
+            Thread writer = new Thread(IdxTrace::drain, "idx-trace-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    private IdxTrace() {
+    }
+
+    /**
+     * Stores the correlation id for the IdentityX object at the given href, which is the last segment of
+     * the href.
+     */
+    static void setCorrelationId(JsonValue sharedState, String href) {
+        if (href != null) {
+            sharedState.put(IDX_CORRELATION_ID_KEY, href.substring(href.lastIndexOf('/') + 1));
+        }
+    }
+
+    /**
+     * Queues an event for a node invocation if its authentication is sampled.
+     * @param node the node type
+     * @param outcome the outcome taken
+     * @param durationNanos how long the node took
+     * @param sharedState the sharedState after the node ran, may be null
+     * @param error the exception thrown by the node, or null
+     */
+    static void nodeEvent(String node, String outcome, long durationNanos, JsonValue sharedState, Throwable error) {
+        if (SAMPLE_THRESHOLD == 0) {
+            return;
+        }
+        String correlationId = sharedState == null ? null : sharedState.get(IDX_CORRELATION_ID_KEY).asString();
+        if (!isSampled(correlationId)) {
+            return;
+        }
+        StringBuilder event = new StringBuilder(128)
+                .append("event=node node=").append(node)
+                .append(" outcome=").append(outcome)
+                .append(" durationMs=").append(TimeUnit.NANOSECONDS.toMillis(durationNanos))
+                .append(" correlationId=").append(correlationId == null ? "-" : correlationId);
+        if (error != null) {
+            event.append(" error=").append(error.getClass().getSimpleName());
+        }
+        if (!events.offer(event.toString())) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Number of events dropped because the buffer was full.
+     */
+    static long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    private static boolean isSampled(String correlationId) {
+        if (SAMPLE_THRESHOLD >= SAMPLE_SCALE) {
+            return true;
+        }
+        int bucket = correlationId == null
+                ? ThreadLocalRandom.current().nextInt(SAMPLE_SCALE)
+                : Math.floorMod(correlationId.hashCode(), SAMPLE_SCALE);
+        return bucket < SAMPLE_THRESHOLD;
+    }
+
+    private static void drain() {
+        while (true) {
+            try {
+                logger.info(events.take());
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                logger.warn("Unable to write trace event: {}", e.getMessage());
+            }
+        }
+    }
+}
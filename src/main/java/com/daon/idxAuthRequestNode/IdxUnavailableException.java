@@ -0,0 +1,14 @@
+package com.daon.idxAuthRequestNode;
+
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+
+/**
+ * Thrown when an IdentityX call was not made, or not waited for, because the tenant is considered
+ * unavailable, so that nodes can take their failure outcome straight away.
+ */
+class IdxUnavailableException extends NodeProcessException {
+
+    IdxUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,123 @@
+package com.daon.idxAuthRequestNode;
+
+import com.daon.identityx.rest.model.pojo.User;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.identityx.clientSDK.TenantRepoFactory;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+
+/**
+ * Short-lived cache of IdentityX user lookups made by IdxCheckEnrollmentStatus.
+ *
+ * Users that were found are kept in one cache and user ids that were not found in another, each with
+ * its own lifetime and size, so that repeated logins for unknown users, as seen in credential stuffing,
+ * do not each turn into an IdentityX search. Cached users are shared and must not be modified.
+ *
+ * Entries for a user should be dropped with {@link #invalidate} whenever the user's enrollment changes,
+ * as IdxSponsorUser does after a completed sponsorship.
+ *
+ * Tuned with idx.userCache.ttlSeconds (default 60, 0 disables), idx.userCache.maxSize (default 10000),
+ * idx.userCache.negativeTtlSeconds (default 30, 0 disables) and idx.userCache.negativeMaxSize
+ * (default 10000).
+ */
+final class IdxUserCache {
+
+    private static final long TTL_SECONDS = Long.getLong("idx.userCache.ttlSeconds", 60);
+    private static final long MAX_SIZE = Long.getLong("idx.userCache.maxSize", 10000);
+    private static final long NEGATIVE_TTL_SECONDS = Long.getLong("idx.userCache.negativeTtlSeconds", 30);
+    private static final long NEGATIVE_MAX_SIZE = Long.getLong("idx.userCache.negativeMaxSize", 10000);
+
+    private static final Cache<UserKey, User> found = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SIZE)
+            .expireAfterWrite(Math.max(TTL_SECONDS, 0), TimeUnit.SECONDS)
+            .build();
+
+    private static final Cache<UserKey, Boolean> notFound = CacheBuilder.newBuilder()
+            .maximumSize(NEGATIVE_MAX_SIZE)
+            .expireAfterWrite(Math.max(NEGATIVE_TTL_SECONDS, 0), TimeUnit.SECONDS)
+            .build();
+
+    private IdxUserCache() {
+    }
+
+    /**
+     * Returns the ACTIVE user with the given userId, or null if there is none.
+     */
+    static User findUser(TenantRepoFactory tenantRepoFactory, String userId) throws NodeProcessException {
+        UserKey key = new UserKey(tenantRepoFactory, userId);
+
+        User user = found.getIfPresent(key);
+        if (user != null) {
+            return user;
+        }
+        if (notFound.getIfPresent(key) != null) {
+            return null;
+        }
+
+        user = IdxCommon.findUser(userId, tenantRepoFactory);
+        put(key, user);
+        return user;
+    }
+
+    /**
+     * Drops any cached lookup of the given userId.
+     */
+    static void invalidate(TenantRepoFactory tenantRepoFactory, String userId) {
+        UserKey key = new UserKey(tenantRepoFactory, userId);
+        found.invalidate(key);
+        notFound.invalidate(key);
+    }
+
+    /**
+     * Drops every cached lookup.
+     */
+    static void invalidateAll() {
+        found.invalidateAll();
+        notFound.invalidateAll();
+    }
+
+    private static void put(UserKey key, User user) {
+        if (user != null) {
+            notFound.invalidate(key);
+            if (TTL_SECONDS > 0) {
+                found.put(key, user);
+            }
+        } else {
+            found.invalidate(key);
+            if (NEGATIVE_TTL_SECONDS > 0) {
+                notFound.put(key, Boolean.TRUE);
+            }
+        }
+    }
+
+    /**
+     * Tenants are identified by their TenantRepoFactory instance, like the keys of IdxLookupCache.
+     */
+    private static final class UserKey {
+        private final TenantRepoFactory tenantRepoFactory;
+        private final String userId;
+
+        UserKey(TenantRepoFactory tenantRepoFactory, String userId) {
+            this.tenantRepoFactory = tenantRepoFactory;
+            this.userId = userId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof UserKey)) {
+                return false;
+            }
+            UserKey other = (UserKey) o;
+            return tenantRepoFactory == other.tenantRepoFactory && userId.equals(other.userId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(tenantRepoFactory), userId);
+        }
+    }
+}
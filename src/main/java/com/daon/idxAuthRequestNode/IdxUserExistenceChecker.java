@@ -0,0 +1,192 @@
+package com.daon.idxAuthRequestNode;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.identityx.clientSDK.TenantRepoFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+import org.forgerock.openam.utils.StringUtils;
+
+/**
+ * Checks whether many users are enrolled in IdentityX, for example to validate a user list before a
+ * migration. It can be called from Java or, once the class is allowed for the script type, from AM
+ * scripts.
+ *
+ * The tenant must already be initialised on this server, by IdxCheckEnrollmentStatus or by the
+ * idx.prewarm.realms setting, and is identified by the handle returned by {@link #getTenantHandle}.
+ * Ids are read a page at a time, skipping blank ids and ids repeated within the page, and looked up a
+ * few at a time. The results of each page are passed to the caller's consumer, on the calling thread and
+ * in input order, before the next page is read, so neither input nor results are held in full. Ids are
+ * deduplicated within a page only: an id repeated in a later page is reported again, usually from a cache
+ * of the last idx.userCheck.cacheSize results of the same check (default 10000).
+ *
+ * Lookups are bulk work kept apart from the logins: they go through the tenant's background circuit
+ * breaker and bypass the user cache of IdxCheckEnrollmentStatus, so a check can neither take the nodes'
+ * permits, open their breaker nor evict their cached users. Ids refused by the background breaker are
+ * reported as ERROR.
+ *
+ * By default idx.userCheck.parallelism ids (default 8) are looked up at once, in pages of
+ * idx.userCheck.pageSize ids (default 500). All checks share idx.userCheck.threads threads (default 16)
+ * when virtual threads are not available.
+ */
+public final class IdxUserExistenceChecker {
+
+    /**
+     * The result of checking one userId.
+     */
+    public enum Status {
+        /** An ACTIVE user with this userId exists. */
+        FOUND,
+        /** No ACTIVE user with this userId exists. */
+        NOT_FOUND,
+        /** The user could not be looked up. */
+        ERROR
+    }
+
+    private static LoggerWrapper logger = new LoggerWrapper();
+
+    private static final int PARALLELISM = Integer.getInteger("idx.userCheck.parallelism", 8);
+    private static final int PAGE_SIZE = Integer.getInteger("idx.userCheck.pageSize", 500);
+    private static final int THREADS = Integer.getInteger("idx.userCheck.threads", 16);
+    private static final long CACHE_SIZE = Long.getLong("idx.userCheck.cacheSize", 10000);
+
+    //Shared by all checks; the permits of each check keep it to its own parallelism
+    private static final ExecutorService executor = IdxCallExecutor.newExecutor("idx-user-check-%d", THREADS,
+            Math.max(PAGE_SIZE, 1));
+
+    private IdxUserExistenceChecker() {
+    }
+
+    /**
+     * Returns the handle of the tenant with the given IdxCheckEnrollmentStatus configuration.
+     */
+    public static String getTenantHandle(String pathToKeyStore, String pathToCredentialProperties, String keyAlias) {
+        return IdxTenantRepoFactoryRegistry.fingerprint(pathToKeyStore, pathToCredentialProperties, keyAlias);
+    }
+
+    /**
+     * Checks the given userIds with the default parallelism and page size.
+     * @return the number of userIds checked
+     * @throws NodeProcessException if the tenant is not initialised on this server
+     */
+    public static int check(String tenantHandle, Iterable<String> userIds, BiConsumer<String, Status> results)
+            throws NodeProcessException {
+        return check(tenantHandle, userIds, results, PARALLELISM, PAGE_SIZE);
+    }
+
+    /**
+     * Checks the given userIds.
+     * @param parallelism the number of userIds looked up at once
+     * @param pageSize the number of userIds read and reported at a time
+     * @return the number of userIds checked
+     * @throws NodeProcessException if the tenant is not initialised on this server
+     */
+    public static int check(String tenantHandle, Iterable<String> userIds, BiConsumer<String, Status> results,
+            int parallelism, int pageSize) throws NodeProcessException {
+
+        TenantRepoFactory tenantRepoFactory = IdxTenantRepoFactoryRegistry.getTenantRepoFactory(tenantHandle);
+        if (tenantRepoFactory == null) {
+            throw new NodeProcessException("IdentityX tenant " + tenantHandle + " is not initialised on this server");
+        }
+
+        int size = Math.max(pageSize, 1);
+        //Virtual thread executors are unbounded, so the permits are what keep lookups to the parallelism
+        Semaphore permits = new Semaphore(Math.max(parallelism, 1));
+        Cache<String, Status> answered = CacheBuilder.newBuilder().maximumSize(Math.max(CACHE_SIZE, 0)).build();
+        Set<String> seen = new HashSet<>();
+        Iterator<String> ids = userIds.iterator();
+        int checked = 0;
+        while (ids.hasNext()) {
+            List<String> page = new ArrayList<>(size);
+            seen.clear();
+            while (ids.hasNext() && page.size() < size) {
+                String userId = ids.next();
+                if (StringUtils.isNotBlank(userId) && seen.add(userId)) {
+                    page.add(userId);
+                }
+            }
+            checkPage(tenantRepoFactory, page, results, permits, answered);
+            checked += page.size();
+        }
+        logger.debug("Checked {} userIds", checked);
+        return checked;
+    }
+
+    private static void checkPage(TenantRepoFactory tenantRepoFactory, List<String> page,
+            BiConsumer<String, Status> results, Semaphore permits, Cache<String, Status> answered)
+            throws NodeProcessException {
+
+        List<Future<Status>> lookups = new ArrayList<>(page.size());
+        try {
+            for (String userId : page) {
+                Status status = answered.getIfPresent(userId);
+                if (status != null) {
+                    lookups.add(CompletableFuture.completedFuture(status));
+                    continue;
+                }
+                permits.acquire();
+                try {
+                    lookups.add(executor.submit(() -> {
+                        try {
+                            return lookup(tenantRepoFactory, userId);
+                        } finally {
+                            permits.release();
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                    logger.debug("Unable to check userId {}: too many lookups waiting", userId);
+                    lookups.add(CompletableFuture.completedFuture(Status.ERROR));
+                }
+            }
+        } catch (InterruptedException e) {
+            cancelAll(lookups);
+            Thread.currentThread().interrupt();
+            throw new NodeProcessException(e);
+        }
+        for (int i = 0; i < page.size(); i++) {
+            Status status;
+            try {
+                status = lookups.get(i).get();
+            } catch (InterruptedException e) {
+                cancelAll(lookups);
+                Thread.currentThread().interrupt();
+                throw new NodeProcessException(e);
+            } catch (ExecutionException e) {
+                status = Status.ERROR;
+            }
+            if (status != Status.ERROR) {
+                answered.put(page.get(i), status);
+            }
+            results.accept(page.get(i), status);
+        }
+    }
+
+    private static void cancelAll(List<Future<Status>> lookups) {
+        for (Future<Status> lookup : lookups) {
+            lookup.cancel(true);
+        }
+    }
+
+    private static Status lookup(TenantRepoFactory tenantRepoFactory, String userId) {
+        try {
+            return IdxCommon.findUser(userId, tenantRepoFactory, true) != null ? Status.FOUND : Status.NOT_FOUND;
+        } catch (NodeProcessException | RuntimeException e) {
+            logger.debug("Unable to check userId {}: {}", userId, e.getMessage());
+            return Status.ERROR;
+        }
+    }
+}
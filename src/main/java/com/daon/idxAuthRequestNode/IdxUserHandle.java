@@ -0,0 +1,106 @@
+package com.daon.idxAuthRequestNode;
+
+import com.daon.identityx.rest.model.pojo.User;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.IOException;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+import org.forgerock.openam.utils.StringUtils;
+
+/**
+ * The reference to an IdentityX user which is carried through the tree: its internal id, href and
+ * userId, each stored as a plain string in sharedState.
+ *
+ * A serialized User left under the old IDX_USER_KEY is still understood. It is read with a reader built
+ * once for this class, which binds only these three properties and skips the rest of the document.
+ * Nothing writes that key any more, so it is only found in authentications which were in flight while the
+ * plugin was upgraded from 1.4.0 or earlier. The legacy reader and the key are to be removed in the
+ * release after 1.11.0, by which time no such session can still be running.
+ */
+final class IdxUserHandle {
+
+    //Remove together with IdxCommon.IDX_USER_KEY
+    private static final ObjectReader legacyReader = new ObjectMapper()
+            .readerFor(IdxUserHandle.class)
+            .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    @JsonProperty("id")
+    private String id;
+
+    @JsonProperty("href")
+    private String href;
+
+    @JsonProperty("userId")
+    private String userId;
+
+    private IdxUserHandle() {
+    }
+
+    IdxUserHandle(String id, String href, String userId) {
+        this.id = id;
+        this.href = href;
+        this.userId = userId;
+    }
+
+    static IdxUserHandle of(User user) {
+        return new IdxUserHandle(user.getId(), user.getHref(), user.getUserId());
+    }
+
+    /**
+     * Reads the handle from sharedState, or returns null if there is none.
+     */
+    static IdxUserHandle fromSharedState(JsonValue sharedState) throws NodeProcessException {
+        String userId = sharedState.get(IdxCommon.IDX_USER_ID_KEY).asString();
+        String href = sharedState.get(IdxCommon.IDX_USER_HREF_KEY).asString();
+        if (StringUtils.isNotBlank(userId) || StringUtils.isNotBlank(href)) {
+            return new IdxUserHandle(sharedState.get(IdxCommon.IDX_USER_INTERNAL_ID_KEY).asString(), href, userId);
+        }
+
+        String legacyUser = sharedState.get(IdxCommon.IDX_USER_KEY).asString();
+        if (legacyUser == null) {
+            return null;
+        }
+        try {
+            return legacyReader.readValue(legacyUser);
+        } catch (IOException e) {
+            throw new NodeProcessException(e);
+        }
+    }
+
+    /**
+     * Stores the handle in sharedState.
+     */
+    void putInto(JsonValue sharedState) {
+        sharedState.put(IdxCommon.IDX_USER_HREF_KEY, href);
+        sharedState.put(IdxCommon.IDX_USER_INTERNAL_ID_KEY, id);
+        sharedState.put(IdxCommon.IDX_USER_ID_KEY, userId);
+    }
+
+    /**
+     * Returns a User which references this user in requests to IdentityX.
+     */
+    User toUser() {
+        User user = new User();
+        user.setId(id);
+        user.setHref(href);
+        user.setUserId(userId);
+        return user;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    String getHref() {
+        return href;
+    }
+
+    String getUserId() {
+        return userId;
+    }
+}
@@ -1,88 +1,163 @@
 package com.daon.idxAuthRequestNode;
 
+import java.util.function.Supplier;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Logs to the amAuth debug log with an "IDX: " prefix.
+ *
+ * Every method checks the level before doing any work, so a disabled level costs no allocation as long as
+ * the caller passes a constant message with at most two arguments. At every level an argument which is
+ * expensive to compute can be passed as a {@link Supplier}, which is only called when the level is
+ * enabled; a non-capturing lambda costs no allocation either. Calls
+ * with three or more arguments allocate their argument array at the call site and should be guarded
+ * with {@link #isDebugEnabled()} on hot paths.
+ */
 public class LoggerWrapper {
-	
+
 	private static final String LOGGER_NAME = "amAuth";
 	private static final String LOGGER_PREFIX = "IDX: ";
 
-	private Logger debugLogger;
+	private static final Logger debugLogger = createLogger();
 
-	private boolean initialized = false;
-
-	private void init() {
-		if (initialized) {
-			return;
-		}
+	private static Logger createLogger() {
 		try {
-			debugLogger = LoggerFactory.getLogger(LOGGER_NAME);
+			return LoggerFactory.getLogger(LOGGER_NAME);
 		} catch (Exception ex) {
-			debugLogger = null;
+			return null;
 		}
-		initialized = true;
 	}
-	
+
+	public boolean isDebugEnabled() {
+		return debugLogger != null && debugLogger.isDebugEnabled();
+	}
+
+	public boolean isInfoEnabled() {
+		return debugLogger != null && debugLogger.isInfoEnabled();
+	}
+
 	public void debug(String message) {
-		init();
-		if (debugLogger != null) {
+		if (isDebugEnabled()) {
 			debugLogger.debug(LOGGER_PREFIX + message);
 		}
 	}
-	
+
+	public void debug(String message, Object arg) {
+		if (isDebugEnabled()) {
+			debugLogger.debug(LOGGER_PREFIX + message, arg);
+		}
+	}
+
+	public void debug(String message, Object arg1, Object arg2) {
+		if (isDebugEnabled()) {
+			debugLogger.debug(LOGGER_PREFIX + message, arg1, arg2);
+		}
+	}
+
+	public void debug(String message, Supplier<?> arg) {
+		if (isDebugEnabled()) {
+			debugLogger.debug(LOGGER_PREFIX + message, arg.get());
+		}
+	}
+
 	public void debug(String message, Object... info) {
-		init();
-		if (debugLogger != null) {
+		if (isDebugEnabled()) {
 			debugLogger.debug(LOGGER_PREFIX + message, info);
 		}
 	}
 
 	public void warn(String message) {
-		init();
-		if (debugLogger != null) {
+		if (debugLogger != null && debugLogger.isWarnEnabled()) {
 			debugLogger.warn(LOGGER_PREFIX + message);
 		}
 	}
-	
+
+	public void warn(String message, Object arg) {
+		if (debugLogger != null && debugLogger.isWarnEnabled()) {
+			debugLogger.warn(LOGGER_PREFIX + message, arg);
+		}
+	}
+
+	public void warn(String message, Object arg1, Object arg2) {
+		if (debugLogger != null && debugLogger.isWarnEnabled()) {
+			debugLogger.warn(LOGGER_PREFIX + message, arg1, arg2);
+		}
+	}
+
+	public void warn(String message, Supplier<?> arg) {
+		if (debugLogger != null && debugLogger.isWarnEnabled()) {
+			debugLogger.warn(LOGGER_PREFIX + message, arg.get());
+		}
+	}
+
 	public void warn(String message, Object... info) {
-		init();
-		if (debugLogger != null) {
+		if (debugLogger != null && debugLogger.isWarnEnabled()) {
 			debugLogger.warn(LOGGER_PREFIX + message, info);
 		}
 	}
-	
+
 	public void info(String message) {
-		init();
-		if (debugLogger != null) {
+		if (isInfoEnabled()) {
 			debugLogger.info(LOGGER_PREFIX + message);
 		}
 	}
-	
+
+	public void info(String message, Object arg) {
+		if (isInfoEnabled()) {
+			debugLogger.info(LOGGER_PREFIX + message, arg);
+		}
+	}
+
+	public void info(String message, Object arg1, Object arg2) {
+		if (isInfoEnabled()) {
+			debugLogger.info(LOGGER_PREFIX + message, arg1, arg2);
+		}
+	}
+
+	public void info(String message, Supplier<?> arg) {
+		if (isInfoEnabled()) {
+			debugLogger.info(LOGGER_PREFIX + message, arg.get());
+		}
+	}
+
 	public void info(String message, Object... info) {
-		init();
-		if (debugLogger != null) {
-			debugLogger.info(LOGGER_PREFIX +message, info);
+		if (isInfoEnabled()) {
+			debugLogger.info(LOGGER_PREFIX + message, info);
 		}
 	}
 
 	public void warning(String message, Object... info) {
-		init();
-		if (debugLogger != null) {
-			debugLogger.warn(LOGGER_PREFIX + message, info);
-		}
+		warn(message, info);
 	}
-	
+
 	public void error(String message) {
-		init();
-		if (debugLogger != null) {
-			debugLogger.error(LOGGER_PREFIX +message);
+		if (debugLogger != null && debugLogger.isErrorEnabled()) {
+			debugLogger.error(LOGGER_PREFIX + message);
+		}
+	}
+
+	public void error(String message, Object arg) {
+		if (debugLogger != null && debugLogger.isErrorEnabled()) {
+			debugLogger.error(LOGGER_PREFIX + message, arg);
+		}
+	}
+
+	public void error(String message, Object arg1, Object arg2) {
+		if (debugLogger != null && debugLogger.isErrorEnabled()) {
+			debugLogger.error(LOGGER_PREFIX + message, arg1, arg2);
+		}
+	}
+
+	public void error(String message, Supplier<?> arg) {
+		if (debugLogger != null && debugLogger.isErrorEnabled()) {
+			debugLogger.error(LOGGER_PREFIX + message, arg.get());
 		}
 	}
 
 	public void error(String message, Object... info) {
-		init();
-		if (debugLogger != null) {
+		if (debugLogger != null && debugLogger.isErrorEnabled()) {
 			debugLogger.error(LOGGER_PREFIX + message, info);
 		}
 	}
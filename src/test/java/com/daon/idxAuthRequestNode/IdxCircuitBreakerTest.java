@@ -0,0 +1,203 @@
+package com.daon.idxAuthRequestNode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.identityx.clientSDK.TenantRepoFactory;
+import com.identityx.clientSDK.exceptions.IdxRestException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * State transitions of {@link IdxCircuitBreaker}, run with the small limits set in the pom: two concurrent
+ * calls, three failures to open and one second open.
+ */
+public class IdxCircuitBreakerTest {
+
+    private TenantRepoFactory tenant;
+    private AtomicInteger calls;
+    private ExecutorService threads;
+
+    @Before
+    public void setUp() {
+        //Breakers are kept per factory, so every test starts with a closed one
+        tenant = mock(TenantRepoFactory.class);
+        calls = new AtomicInteger();
+        threads = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        threads.shutdownNow();
+    }
+
+    @Test
+    public void successfulCallReturnsItsResult() throws Exception {
+        assertEquals("ok", IdxCircuitBreaker.call(tenant, "test", succeeding()));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void serverFailuresOpenTheCircuit() throws Exception {
+        failTimes(3, 503);
+
+        assertRefused();
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void clientErrorsLeaveTheCircuitClosed() throws Exception {
+        failTimes(5, 404);
+
+        assertEquals("ok", IdxCircuitBreaker.call(tenant, "test", succeeding()));
+    }
+
+    @Test
+    public void successResetsTheFailureCount() throws Exception {
+        failTimes(2, 500);
+        IdxCircuitBreaker.call(tenant, "test", succeeding());
+        failTimes(2, 500);
+
+        assertEquals("ok", IdxCircuitBreaker.call(tenant, "test", succeeding()));
+    }
+
+    @Test
+    public void successfulProbeClosesTheCircuit() throws Exception {
+        failTimes(3, 503);
+        Thread.sleep(1100);
+
+        assertEquals("ok", IdxCircuitBreaker.call(tenant, "test", succeeding()));
+        assertEquals("ok", IdxCircuitBreaker.call(tenant, "test", succeeding()));
+    }
+
+    @Test
+    public void failedProbeOpensTheCircuitAgain() throws Exception {
+        failTimes(3, 503);
+        Thread.sleep(1100);
+        failTimes(1, 503);
+
+        assertRefused();
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    public void backgroundCallsHaveTheirOwnCircuit() throws Exception {
+        failTimes(3, 503);
+
+        assertEquals("ok", IdxCircuitBreaker.callInBackground(tenant, "test", succeeding()));
+    }
+
+    @Test
+    public void callsBeyondTheLimitAreRefused() throws Exception {
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 2; i++) {
+            threads.submit(() -> IdxCircuitBreaker.call(tenant, "test", blocking(started, release)));
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertRefused();
+
+        release.countDown();
+        assertEventuallySucceeds();
+    }
+
+    @Test
+    public void timedOutCallKeepsItsPermitUntilItFinishes() throws Exception {
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 2; i++) {
+            try {
+                IdxCallExecutor.withDeadlineAt(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200), () -> {
+                    try {
+                        return IdxCircuitBreaker.call(tenant, "test", blocking(started, release));
+                    } catch (IdxRestException e) {
+                        throw new NodeProcessException(e);
+                    }
+                });
+                fail("Expected the call to time out");
+            } catch (IdxTimeoutException expected) {
+                //The call carries on in the background, as the SDK's blocking IO would
+            }
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertRefused();
+
+        release.countDown();
+        assertEventuallySucceeds();
+    }
+
+    private IdxRestCall<String> succeeding() {
+        return () -> {
+            calls.incrementAndGet();
+            return "ok";
+        };
+    }
+
+    /**
+     * Returns a call which ignores interrupts while it waits, like the SDK's blocking IO.
+     */
+    private IdxRestCall<String> blocking(CountDownLatch started, CountDownLatch release) {
+        return () -> {
+            calls.incrementAndGet();
+            started.countDown();
+            Uninterruptibles.awaitUninterruptibly(release);
+            return "ok";
+        };
+    }
+
+    private void failTimes(int times, int httpStatus) throws Exception {
+        IdxRestException error = mock(IdxRestException.class);
+        when(error.getHttpStatus()).thenReturn(httpStatus);
+        for (int i = 0; i < times; i++) {
+            try {
+                IdxCircuitBreaker.call(tenant, "test", () -> {
+                    calls.incrementAndGet();
+                    throw error;
+                });
+                fail("Expected the call to fail");
+            } catch (IdxRestException expected) {
+                assertEquals(httpStatus, expected.getHttpStatus());
+            }
+        }
+    }
+
+    private void assertRefused() throws Exception {
+        int before = calls.get();
+        try {
+            IdxCircuitBreaker.call(tenant, "test", succeeding());
+            fail("Expected the call to be refused");
+        } catch (IdxUnavailableException expected) {
+            assertEquals("Refused calls must not reach IdentityX", before, calls.get());
+        }
+    }
+
+    private void assertEventuallySucceeds() throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            try {
+                assertEquals("ok", IdxCircuitBreaker.call(tenant, "test", succeeding()));
+                return;
+            } catch (IdxUnavailableException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+}
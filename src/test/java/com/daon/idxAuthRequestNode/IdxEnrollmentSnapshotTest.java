@@ -0,0 +1,169 @@
+package com.daon.idxAuthRequestNode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import com.daon.identityx.rest.model.pojo.User;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writing, merging and reading back the index files of {@link IdxEnrollmentSnapshot}.
+ */
+public class IdxEnrollmentSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void findsEveryUserAcrossMergedRuns() throws IOException {
+        List<String> userIds = Arrays.asList("u07", "u03", "u11", "u01", "u09", "u05", "u10", "u02", "u08",
+                "u04", "u06");
+        Path file = folder.getRoot().toPath().resolve("tenant.1.idx");
+        //Runs of three users, so the merge reads from four runs
+        try (IdxEnrollmentSnapshot.IndexWriter writer = new IdxEnrollmentSnapshot.IndexWriter(file, 1, 3)) {
+            for (String userId : userIds) {
+                writer.add(new IdxEnrollmentSnapshot.Entry(user(userId)));
+            }
+            writer.finish();
+        }
+
+        IdxEnrollmentSnapshot.Index index = IdxEnrollmentSnapshot.Index.open(file);
+        assertEquals(userIds.size(), index.size());
+        for (String userId : userIds) {
+            assertUser(index.find(userId), userId);
+        }
+        assertNull(index.find("u00"));
+        assertNull(index.find("u12"));
+        assertNull(index.find("u0"));
+    }
+
+    @Test
+    public void dropsUsersRepeatedWithinAndAcrossRuns() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("tenant.1.idx");
+        try (IdxEnrollmentSnapshot.IndexWriter writer = new IdxEnrollmentSnapshot.IndexWriter(file, 1, 2)) {
+            for (String userId : Arrays.asList("b", "a", "b", "c", "a", "a", "c")) {
+                writer.add(new IdxEnrollmentSnapshot.Entry(user(userId)));
+            }
+            writer.finish();
+        }
+
+        IdxEnrollmentSnapshot.Index index = IdxEnrollmentSnapshot.Index.open(file);
+        assertEquals(3, index.size());
+        assertUser(index.find("a"), "a");
+        assertUser(index.find("b"), "b");
+        assertUser(index.find("c"), "c");
+    }
+
+    @Test
+    public void findsNonAsciiUserIds() throws IOException {
+        //Sorted by UTF-8 bytes these differ from String order, which the lookup must not depend on
+        List<String> userIds = Arrays.asList("zoë", "Zoe", "émile", "😀smile", "abc", "ß", "z");
+        Path file = folder.getRoot().toPath().resolve("tenant.1.idx");
+        try (IdxEnrollmentSnapshot.IndexWriter writer = new IdxEnrollmentSnapshot.IndexWriter(file, 1, 2)) {
+            for (String userId : userIds) {
+                writer.add(new IdxEnrollmentSnapshot.Entry(user(userId)));
+            }
+            writer.finish();
+        }
+
+        IdxEnrollmentSnapshot.Index index = IdxEnrollmentSnapshot.Index.open(file);
+        for (String userId : userIds) {
+            assertUser(index.find(userId), userId);
+        }
+        assertNull(index.find("zoe"));
+    }
+
+    @Test
+    public void readsAnEmptyIndex() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("tenant.1.idx");
+        try (IdxEnrollmentSnapshot.IndexWriter writer = new IdxEnrollmentSnapshot.IndexWriter(file, 1, 2)) {
+            writer.finish();
+        }
+
+        IdxEnrollmentSnapshot.Index index = IdxEnrollmentSnapshot.Index.open(file);
+        assertEquals(0, index.size());
+        assertNull(index.find("a"));
+    }
+
+    @Test
+    public void keepsTheCreationTime() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("tenant.1.idx");
+        long created = System.currentTimeMillis() - 60000;
+        try (IdxEnrollmentSnapshot.IndexWriter writer = new IdxEnrollmentSnapshot.IndexWriter(file, created, 2)) {
+            writer.finish();
+        }
+
+        long age = IdxEnrollmentSnapshot.Index.open(file).age();
+        if (age < 60000 || age > 120000) {
+            fail("Unexpected index age " + age);
+        }
+    }
+
+    @Test
+    public void leavesOnlyTheIndexFile() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("tenant.1.idx");
+        try (IdxEnrollmentSnapshot.IndexWriter writer = new IdxEnrollmentSnapshot.IndexWriter(file, 1, 2)) {
+            for (String userId : Arrays.asList("c", "b", "a")) {
+                writer.add(new IdxEnrollmentSnapshot.Entry(user(userId)));
+            }
+            writer.finish();
+        }
+
+        assertEquals(Collections.singletonList("tenant.1.idx"), files());
+    }
+
+    @Test
+    public void removesTemporaryFilesOfAnUnfinishedIndex() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("tenant.1.idx");
+        try (IdxEnrollmentSnapshot.IndexWriter writer = new IdxEnrollmentSnapshot.IndexWriter(file, 1, 2)) {
+            for (String userId : Arrays.asList("c", "b", "a")) {
+                writer.add(new IdxEnrollmentSnapshot.Entry(user(userId)));
+            }
+        }
+
+        assertEquals(Collections.emptyList(), files());
+    }
+
+    @Test(expected = IOException.class)
+    public void refusesAFileWhichIsNotAnIndex() throws IOException {
+        Path file = folder.newFile("tenant.1.idx").toPath();
+        Files.write(file, new byte[64]);
+
+        IdxEnrollmentSnapshot.Index.open(file);
+    }
+
+    private List<String> files() throws IOException {
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            return files.map(path -> path.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static User user(String userId) {
+        User user = new User();
+        user.setUserId(userId);
+        user.setId("id-" + userId);
+        user.setHref("https://idx.example.com/users/id-" + userId);
+        return user;
+    }
+
+    private static void assertUser(User user, String userId) {
+        assertNotNull("User " + userId + " not found", user);
+        assertEquals(userId, user.getUserId());
+        assertEquals("id-" + userId, user.getId());
+        assertEquals("https://idx.example.com/users/id-" + userId, user.getHref());
+    }
+}
@@ -0,0 +1,76 @@
+package com.daon.idxAuthRequestNode;
+
+import static com.daon.idxAuthRequestNode.IdxMobileValidateAuthRequestNode.extractAuthResponse;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Reading the fidoAuthenticationResponse out of the value the client posts to
+ * {@link IdxMobileValidateAuthRequestNode}.
+ */
+public class IdxMobileValidateAuthRequestNodeTest {
+
+    @Test
+    public void readsTheResponseOfAnObject() {
+        assertEquals("response", extractAuthResponse("{\"fidoAuthenticationResponse\":\"response\"}"));
+    }
+
+    @Test
+    public void skipsOtherPropertiesOfAnyType() {
+        assertEquals("response", extractAuthResponse("{\"href\":\"https://idx.example.com/r/1\",\"count\":3,"
+                + "\"ok\":true,\"none\":null,\"list\":[1,{\"a\":[2]}],\"fidoChallenge\":{\"b\":\"c\"},"
+                + "\"fidoAuthenticationResponse\":\"response\",\"after\":\"ignored\"}"));
+    }
+
+    @Test
+    public void unescapesTheResponse() {
+        assertEquals("[{\"header\":{\"op\":\"Auth\"}}]",
+                extractAuthResponse("{\"fidoAuthenticationResponse\":\"[{\\\"header\\\":{\\\"op\\\":\\\"Auth\\\"}}]\"}"));
+    }
+
+    @Test
+    public void acceptsLeadingWhitespace() {
+        assertEquals("response", extractAuthResponse(" \n{ \"fidoAuthenticationResponse\" : \"response\" }"));
+    }
+
+    @Test
+    public void readsOnlyTheTopLevel() {
+        assertNull(extractAuthResponse("{\"data\":{\"fidoAuthenticationResponse\":\"nested\"}}"));
+        assertNull(extractAuthResponse("{\"data\":[{\"fidoAuthenticationResponse\":\"nested\"}]}"));
+        assertEquals("top", extractAuthResponse(
+                "{\"data\":{\"fidoAuthenticationResponse\":\"nested\"},\"fidoAuthenticationResponse\":\"top\"}"));
+    }
+
+    @Test
+    public void ignoresAResponseWhichIsNotAString() {
+        assertNull(extractAuthResponse("{\"fidoAuthenticationResponse\":{\"header\":{\"op\":\"Auth\"}}}"));
+        assertNull(extractAuthResponse("{\"fidoAuthenticationResponse\":[\"response\"]}"));
+        assertNull(extractAuthResponse("{\"fidoAuthenticationResponse\":42}"));
+        assertNull(extractAuthResponse("{\"fidoAuthenticationResponse\":null}"));
+    }
+
+    @Test
+    public void ignoresValuesWhichAreNotObjects() {
+        assertNull(extractAuthResponse(null));
+        assertNull(extractAuthResponse(""));
+        assertNull(extractAuthResponse("response"));
+        assertNull(extractAuthResponse("\"fidoAuthenticationResponse\""));
+        assertNull(extractAuthResponse("[{\"fidoAuthenticationResponse\":\"response\"}]"));
+        assertNull(extractAuthResponse("42"));
+    }
+
+    @Test
+    public void ignoresAMissingResponse() {
+        assertNull(extractAuthResponse("{}"));
+        assertNull(extractAuthResponse("{\"fidoResponse\":\"response\"}"));
+    }
+
+    @Test
+    public void ignoresMalformedJson() {
+        assertNull(extractAuthResponse("{\"fidoAuthenticationResponse\":"));
+        assertNull(extractAuthResponse("{\"other\":\"unterminated, \"fidoAuthenticationResponse\":\"x\"}"));
+        assertNull(extractAuthResponse("{not json}"));
+    }
+}